@@ -1,6 +1,7 @@
 package com.github.dmitriims.posikengine.api;
 
 import com.github.dmitriims.posikengine.dto.IndexingStatusResponse;
+import com.github.dmitriims.posikengine.dto.MetricsResponse;
 import com.github.dmitriims.posikengine.dto.SearchRequest;
 import com.github.dmitriims.posikengine.dto.SearchResponse;
 import com.github.dmitriims.posikengine.dto.statistics.StatisticsResponse;
@@ -8,6 +9,7 @@ import com.github.dmitriims.posikengine.exceptions.IndexingStatusException;
 import com.github.dmitriims.posikengine.exceptions.SearchException;
 import com.github.dmitriims.posikengine.exceptions.UnknownIndexingStatusException;
 import com.github.dmitriims.posikengine.service.IndexingService;
+import com.github.dmitriims.posikengine.service.MetricsService;
 import com.github.dmitriims.posikengine.service.search.SearchService;
 import com.github.dmitriims.posikengine.service.StatisticsService;
 import org.slf4j.Logger;
@@ -28,12 +30,19 @@ public class ApiController {
     StatisticsService statisticsService;
     @Resource
     SearchService searchService;
+    @Resource
+    MetricsService metricsService;
 
     @GetMapping("/statistics")
     public ResponseEntity<StatisticsResponse> calculateStatistics() {
         return ResponseEntity.ok(statisticsService.getStatistics());
     }
 
+    @GetMapping("/metrics")
+    public ResponseEntity<MetricsResponse> getMetrics() {
+        return ResponseEntity.ok(metricsService.getMetrics());
+    }
+
     @GetMapping("/startIndexing")
     public ResponseEntity<IndexingStatusResponse> startIndexing() throws IOException {
         IndexingStatusResponse status = indexingService.startIndexing();
@@ -56,6 +65,15 @@ public class ApiController {
         throw new UnknownIndexingStatusException("Неизвестная ошибка индексирования");
     }
 
+    @GetMapping("/resumeIndexing")
+    public ResponseEntity<IndexingStatusResponse> resumeIndexing() throws IOException {
+        IndexingStatusResponse status = indexingService.resumeIndexing();
+        if (indexingService.isIndexing()) {
+            return ResponseEntity.ok(status);
+        }
+        throw new UnknownIndexingStatusException("Неизвестная ошибка индексирования");
+    }
+
     @PostMapping("/indexSite")
     public ResponseEntity<IndexingStatusResponse> indexSite(@RequestParam String siteUrl) throws IOException {
         if (indexingService.isSiteIndexing(siteUrl)) {
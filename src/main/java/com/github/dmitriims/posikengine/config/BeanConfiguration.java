@@ -1,5 +1,6 @@
 package com.github.dmitriims.posikengine.config;
 
+import com.github.dmitriims.posikengine.service.WordTokenizer;
 import crawlercommons.robots.SimpleRobotRulesParser;
 import org.apache.lucene.morphology.LuceneMorphology;
 import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
@@ -57,5 +58,5 @@ public class BeanConfiguration {
     }
 
     @Bean(name = "notAWord")
-    public String notAWord() { return "(?:\\.*\\s+\\-\\s+\\.*)|[^\\-а-яА-Яa-zA-Z\\d\\ё\\Ё]+";}
+    public String notAWord() { return WordTokenizer.NOT_A_WORD_PATTERN;}
 }
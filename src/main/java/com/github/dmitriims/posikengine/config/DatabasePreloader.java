@@ -11,6 +11,7 @@ import com.github.dmitriims.posikengine.model.User;
 import com.github.dmitriims.posikengine.repositories.FieldRepository;
 import com.github.dmitriims.posikengine.repositories.SiteRepository;
 import com.github.dmitriims.posikengine.repositories.UserRepository;
+import com.github.dmitriims.posikengine.service.DatabaseService;
 import lombok.Data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,11 +39,13 @@ public class DatabasePreloader {
 
     @Bean
     @Autowired
-    CommandLineRunner initDatabase(SiteRepository siteRepository, FieldRepository fieldRepository, UserRepository userRepository) {
+    CommandLineRunner initDatabase(SiteRepository siteRepository, FieldRepository fieldRepository, UserRepository userRepository,
+                                   DatabaseService databaseService) {
         return args -> {
             loadSites(siteRepository);
             loadFields(fieldRepository);
             loadUsers(userRepository);
+            databaseService.loadInvertedIndexInBackground();
 
         };
     }
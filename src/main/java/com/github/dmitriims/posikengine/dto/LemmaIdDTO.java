@@ -0,0 +1,6 @@
+package com.github.dmitriims.posikengine.dto;
+
+public interface LemmaIdDTO {
+    String getLemma();
+    Long getId();
+}
@@ -0,0 +1,13 @@
+package com.github.dmitriims.posikengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class MetricsResponse {
+    private boolean result;
+    private Map<String, Map<String, Number>> metrics;
+}
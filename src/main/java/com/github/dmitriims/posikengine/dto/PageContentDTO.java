@@ -0,0 +1,9 @@
+package com.github.dmitriims.posikengine.dto;
+
+public interface PageContentDTO {
+    Long getId();
+    String getSiteUrl();
+    String getSiteName();
+    String getPath();
+    String getContent();
+}
@@ -0,0 +1,11 @@
+package com.github.dmitriims.posikengine.dto;
+
+public interface PageValidatorsDTO {
+    Long getId();
+    String getPath();
+    int getCode();
+    String getEtag();
+    String getLastModified();
+    Long getContentHash();
+    Long getSitemapLastmod();
+}
@@ -0,0 +1,14 @@
+package com.github.dmitriims.posikengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RankedPageDTO implements PageDTO {
+    private String siteUrl;
+    private String siteName;
+    private String path;
+    private String content;
+    private double relevance;
+}
@@ -18,4 +18,6 @@ public class Detailed {
     private String error;
     private long pages;
     private long lemmas;
+    private long visitedUrls;
+    private long visitedUrlsMemory;
 }
@@ -0,0 +1,15 @@
+package com.github.dmitriims.posikengine.dto.userprovaideddata;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "search-engine-properties.http-client")
+@Data
+public class HttpClientSettings {
+    private int maxIdleConnections = 64;
+    private long keepAlive = 300;
+    private long timeout = 60;
+    private long dnsCacheTtl = 300;
+}
@@ -0,0 +1,37 @@
+package com.github.dmitriims.posikengine.dto.userprovaideddata;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "search-engine-properties.indexing")
+@Data
+public class IndexingSettings {
+    private int writerThreads = 2;
+    private int writerQueueCapacity = 500;
+    private int writerBatchSize = 50;
+    private long lemmaFlushInterval = 10;
+    private boolean indexCopy = true;
+    private boolean generationReindex = false;
+    private int crawlerThreads = 16;
+    private int analyzerThreads = Runtime.getRuntime().availableProcessors();
+    private int analyzerQueueCapacity = 50;
+    private int maxThreadsPerSite = 4;
+    private int maxFetchesPerHost = 1;
+    private int minDelay = 200;
+    private int maxDelay = 600;
+    private long schedulerTick = 50;
+    private int visitedStripes = 16;
+    private int visitedBloomFilterSize = 0;
+    private int maxBodySize = 5 * 1024 * 1024;
+    private int maxDepth = 0;
+    private int maxPages = 0;
+    private long maxBytes = 0;
+    private long maxCrawlTime = 0;
+    private int maxFrontierSize = 100000;
+    private boolean useSitemaps = true;
+    private int maxSitemaps = 100;
+    private String checkpointDir = "checkpoints";
+    private long checkpointInterval = 60;
+}
@@ -0,0 +1,12 @@
+package com.github.dmitriims.posikengine.dto.userprovaideddata;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "search-engine-properties.morphology")
+@Data
+public class MorphologySettings {
+    private int normalFormCacheSize = 100000;
+}
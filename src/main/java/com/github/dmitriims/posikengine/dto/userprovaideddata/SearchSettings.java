@@ -0,0 +1,13 @@
+package com.github.dmitriims.posikengine.dto.userprovaideddata;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "search-engine-properties.search")
+@Data
+public class SearchSettings {
+    private boolean inMemoryIndex = true;
+    private int resultCacheSize = 1000;
+}
@@ -6,4 +6,12 @@ import lombok.Data;
 public class SiteUrlAndNameDTO {
     private String url;
     private String name;
+    private Integer minDelay;
+    private Integer maxDelay;
+    private Integer weight;
+    private Integer maxThreads;
+    private Integer maxDepth;
+    private Integer maxPages;
+    private Long maxBytes;
+    private Long maxCrawlTime;
 }
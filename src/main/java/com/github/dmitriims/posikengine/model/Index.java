@@ -12,7 +12,8 @@ import java.util.Objects;
 @Table(name = "`index`",
         uniqueConstraints = {
         @UniqueConstraint(name = "UniquePageAndLemma", columnNames = {"page_id", "lemma_id"})
-})
+        },
+        indexes = @javax.persistence.Index(name = "index_lemma_page", columnList = "lemma_id, page_id"))
 public class Index {
 
     @Id
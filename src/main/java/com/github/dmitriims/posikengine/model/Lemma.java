@@ -12,7 +12,7 @@ import java.util.Set;
 @Setter
 @Entity
 @Table(uniqueConstraints = {
-        @UniqueConstraint(name = "uniqueSiteAndLemma", columnNames = {"site_id", "lemma"})
+        @UniqueConstraint(name = "uniqueSiteAndLemma", columnNames = {"site_id", "generation", "lemma"})
        },
         indexes = @javax.persistence.Index(name="lemma_index", columnList = "lemma"))
 public class Lemma {
@@ -36,6 +36,9 @@ public class Lemma {
 
     private int frequency;
 
+    @Column(columnDefinition = "integer not null default 0")
+    private int generation;
+
     @Transient
     private double rank;
 
@@ -11,7 +11,7 @@ import java.util.Set;
 @Getter
 @Entity
 @Table(uniqueConstraints = {
-        @UniqueConstraint(name = "UniqueSiteAndPath", columnNames = {"site_id", "`path`"})
+        @UniqueConstraint(name = "UniqueSiteAndPath", columnNames = {"site_id", "generation", "`path`"})
 })
 public class Page {
 
@@ -41,6 +41,20 @@ public class Page {
     @Column(name = "lemmas_hashcode")
     private int lemmasHashcode;
 
+    private String etag;
+
+    @Column(name = "last_modified")
+    private String lastModified;
+
+    @Column(name = "content_hash")
+    private Long contentHash;
+
+    @Column(name = "sitemap_lastmod")
+    private Long sitemapLastmod;
+
+    @Column(columnDefinition = "integer not null default 0")
+    private int generation;
+
     @OneToMany(mappedBy = "page", fetch = FetchType.LAZY, cascade = javax.persistence.CascadeType.REMOVE, orphanRemoval = true)
     private Set<Index> indices;
 
@@ -37,6 +37,10 @@ public class Site {
     @Column(name = "last_error")
     private String lastError;
 
+    /* поколение страниц и лемм, по которому идёт поиск */
+    @Column(columnDefinition = "integer not null default 0")
+    private int generation;
+
     @OneToMany(mappedBy = "site", fetch = FetchType.LAZY, cascade = javax.persistence.CascadeType.REMOVE, orphanRemoval = true)
     private Set<Page> pages;
 
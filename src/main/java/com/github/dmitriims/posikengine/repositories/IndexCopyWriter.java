@@ -0,0 +1,72 @@
+package com.github.dmitriims.posikengine.repositories;
+
+import com.github.dmitriims.posikengine.model.Index;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/*
+ * Пишет строки индекса через COPY: строки в текстовом формате потоком уходят во временную таблицу соединения,
+ * откуда переносятся в index одним insert ... select, который и раздаёт id из последовательности.
+ * Перед вызовом все изменения Hibernate должны быть сброшены в базу: страницы и удаления старых строк индекса.
+ */
+class IndexCopyWriter {
+
+    private static final String CREATE_STAGING = "create temp table if not exists index_copy " +
+            "(page_id int8, lemma_id int8, rank float8, count int4)";
+    private static final String COPY_TO_STAGING = "copy index_copy (page_id, lemma_id, rank, count) from stdin";
+    private static final String MOVE_FROM_STAGING = "insert into index (id, page_id, lemma_id, rank, count) " +
+            "select nextval('index_sequence'), page_id, lemma_id, rank, count from index_copy";
+    private static final String CLEAN_STAGING = "truncate index_copy";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private IndexCopyWriter() {
+    }
+
+    static long copy(Connection connection, List<Index> indexes) throws SQLException {
+        if (indexes.isEmpty()) {
+            return 0;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING);
+        }
+
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_TO_STAGING);
+        try {
+            StringBuilder rows = new StringBuilder(BUFFER_SIZE + 128);
+            for (Index index : indexes) {
+                rows.append(index.getPage().getId()).append('\t')
+                        .append(index.getLemma().getId()).append('\t')
+                        .append(index.getRank()).append('\t')
+                        .append(index.getCount()).append('\n');
+                if (rows.length() >= BUFFER_SIZE) {
+                    write(copyIn, rows);
+                }
+            }
+            write(copyIn, rows);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            long inserted = statement.executeUpdate(MOVE_FROM_STAGING);
+            statement.execute(CLEAN_STAGING);
+            return inserted;
+        }
+    }
+
+    private static void write(CopyIn copyIn, StringBuilder rows) throws SQLException {
+        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        rows.setLength(0);
+    }
+}
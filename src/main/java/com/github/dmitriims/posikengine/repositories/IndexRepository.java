@@ -2,25 +2,19 @@ package com.github.dmitriims.posikengine.repositories;
 
 import com.github.dmitriims.posikengine.model.Index;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 
-public interface IndexRepository extends JpaRepository<Index, Long> {
-    List<Index> findAllByPage_Id(Long pageId);
+public interface IndexRepository extends JpaRepository<Index, Long>, IndexRepositoryCustom {
+    @Modifying
+    @Query(value = "delete from index where page_id in :pageIds", nativeQuery = true)
+    void deleteByPageIds(List<Long> pageIds);
 
-    @Query(
-            value = "select i.page_id " +
-                    "from index i " +
-                    "join lemma l on l.id = i.lemma_id " +
-                    "where l.site_id in :siteIds " +
-                    "and l.lemma = :lemma " +
-                    "and i.page_id in (:pageIds)",
-            nativeQuery = true
-    )
-    List<Long> findPageIdsBySiteInAndLemmaAndPageIdsIn(
-            List<Long> siteIds,
-            String lemma,
-            List<Long> pageIds);
+    @Modifying
+    @Query(value = "delete from index i using page p where i.page_id = p.id " +
+            "and p.site_id = :siteId and p.generation <> :generation", nativeQuery = true)
+    void deleteOtherGenerations(Long siteId, int generation);
 }
 
@@ -0,0 +1,18 @@
+package com.github.dmitriims.posikengine.repositories;
+
+import com.github.dmitriims.posikengine.model.Index;
+
+import java.util.List;
+
+public interface IndexRepositoryCustom {
+
+    long copyIndexes(List<Index> indexes);
+
+    /* строки индекса активного поколения сайтов по возрастанию id страниц внутри сайта; нужна открытая транзакция */
+    void streamActiveIndexRows(List<Long> siteIds, IndexRowHandler handler);
+
+    @FunctionalInterface
+    interface IndexRowHandler {
+        void accept(Long siteId, Long pageId, String lemma, double rank);
+    }
+}
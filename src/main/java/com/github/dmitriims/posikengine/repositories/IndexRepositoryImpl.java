@@ -0,0 +1,46 @@
+package com.github.dmitriims.posikengine.repositories;
+
+import com.github.dmitriims.posikengine.model.Index;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+
+public class IndexRepositoryImpl implements IndexRepositoryCustom {
+
+    private static final String ACTIVE_INDEX_ROWS =
+            "select p.site_id, i.page_id, l.lemma, i.rank from index i " +
+            "join page p on p.id = i.page_id " +
+            "join site s on s.id = p.site_id and s.generation = p.generation " +
+            "join lemma l on l.id = i.lemma_id " +
+            "where p.site_id = any(?::int8[]) " +
+            "order by p.site_id, i.page_id";
+    private static final int FETCH_SIZE = 10000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IndexRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public long copyIndexes(List<Index> indexes) {
+        Long inserted = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> IndexCopyWriter.copy(connection, indexes));
+        return inserted == null ? 0 : inserted;
+    }
+
+    /* строки читаются курсором порциями по FETCH_SIZE, таблица индекса целиком в памяти не собирается */
+    @Override
+    public void streamActiveIndexRows(List<Long> siteIds, IndexRowHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(ACTIVE_INDEX_ROWS);
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setArray(1, connection.createArrayOf("int8", siteIds.toArray()));
+            return statement;
+        }, (ResultSet rs) -> {
+            handler.accept(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getDouble(4));
+        });
+    }
+}
@@ -1,29 +1,54 @@
 package com.github.dmitriims.posikengine.repositories;
 
 import com.github.dmitriims.posikengine.dto.FilteredLemmaDTO;
+import com.github.dmitriims.posikengine.dto.LemmaIdDTO;
 import com.github.dmitriims.posikengine.model.Lemma;
 import com.github.dmitriims.posikengine.model.Site;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
 import javax.persistence.Tuple;
 import java.util.List;
 
-public interface LemmaRepository extends JpaRepository<Lemma, Long> {
-    long countBySite(Site site);
+public interface LemmaRepository extends JpaRepository<Lemma, Long>, LemmaRepositoryCustom {
+    long countBySiteAndGeneration(Site site, int generation);
 
-    List<Lemma> findAllBySiteAndLemmaIn(Site site, List<String> lemmas);
+    @Query(value = "select count(l.id) from lemma l join site s on s.id = l.site_id where l.generation = s.generation", nativeQuery = true)
+    long countActive();
 
+    @Query(value = "select l.lemma as lemma, l.id as id from lemma l where l.site_id = :siteId and l.generation = :generation",
+            nativeQuery = true)
+    List<LemmaIdDTO> getLemmaIdsBySiteIdAndGeneration(Long siteId, int generation);
+
+    @Modifying
+    @Query(value = "delete from lemma l where l.site_id = :siteId and l.frequency <= 0 " +
+            "and not exists (select 1 from index i where i.lemma_id = l.id)", nativeQuery = true)
+    void deleteUnusedBySiteId(Long siteId);
+
+    @Modifying
+    @Query(value = "delete from lemma l where l.id in :lemmaIds and l.frequency <= 0 " +
+            "and not exists (select 1 from index i where i.lemma_id = l.id)", nativeQuery = true)
+    void deleteUnusedByIds(List<Long> lemmaIds);
+
+    @Modifying
+    @Query(value = "delete from lemma where site_id = :siteId and generation <> :generation", nativeQuery = true)
+    void deleteOtherGenerations(Long siteId, int generation);
+
+    /* доля страниц считается от страниц выбранных сайтов, от редких лемм к частым */
     @Query(
             value = "select " +
-                "distinct l.lemma as lemma, " +
-                "sum(l.frequency) over (partition by l.lemma) as fr " +
+                "l.lemma as lemma, " +
+                "count(i.page_id) as fr " +
             "from lemma l " +
             "join index i on l.id = i.lemma_id " +
+            "join site s on s.id = l.site_id " +
             "where l.site_id in :siteIds " +
+            "and l.generation = s.generation " +
             "and l.lemma in :lemmas " +
-            "group by l.lemma, l.frequency, l.id " +
-            "having count(i.page_id) < (select cast(count(p.id) as double precision) * :threshold from page p) " +
+            "group by l.lemma " +
+            "having count(i.page_id) < (select cast(count(p.id) as double precision) * :threshold from page p " +
+                "join site ps on ps.id = p.site_id where p.site_id in :siteIds and p.generation = ps.generation) " +
             "order by fr asc",
             nativeQuery = true)
     List<FilteredLemmaDTO> filterVeryPopularLemmas(
@@ -0,0 +1,13 @@
+package com.github.dmitriims.posikengine.repositories;
+
+import java.util.List;
+import java.util.Map;
+
+public interface LemmaRepositoryCustom {
+
+    Map<String, Long> upsertFrequencies(Long siteId, int generation, Map<String, Integer> frequencies);
+
+    void addToFrequencies(Map<Long, Long> deltas);
+
+    List<Long> subtractFrequenciesOfPages(List<Long> pageIds);
+}
@@ -0,0 +1,97 @@
+package com.github.dmitriims.posikengine.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+
+/*
+ * Пачка лемм пишется одним запросом: строки передаются массивами и разворачиваются через unnest. Леммы сортируются,
+ * чтобы одновременные записи разных пачек брали блокировки строк в одном порядке и не ждали друг друга по кругу.
+ * Новые id берутся из той же последовательности, что и у Hibernate: nextval выдаёт значение больше уже
+ * розданных им блоков, а шаг последовательности равен размеру блока, поэтому id не пересекаются.
+ */
+public class LemmaRepositoryImpl implements LemmaRepositoryCustom {
+
+    private static final String UPSERT_FREQUENCIES =
+            "insert into lemma (id, site_id, generation, lemma, frequency) " +
+            "select nextval('lemma_sequence'), ?, ?, l.lemma, l.frequency from unnest(?::text[], ?::int4[]) as l(lemma, frequency) " +
+            "on conflict (site_id, generation, lemma) do update set frequency = lemma.frequency + excluded.frequency " +
+            "returning id, lemma";
+
+    private static final String ADD_TO_FREQUENCIES =
+            "update lemma set frequency = lemma.frequency + d.delta " +
+            "from unnest(?::int8[], ?::int8[]) as d(id, delta) where lemma.id = d.id";
+
+    private static final String SUBTRACT_FREQUENCIES_OF_PAGES =
+            "update lemma set frequency = lemma.frequency - d.total " +
+            "from (select lemma_id, sum(count) as total from index where page_id = any(?::int8[]) group by lemma_id) as d " +
+            "where lemma.id = d.lemma_id " +
+            "returning lemma.id, lemma.frequency";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public LemmaRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public Map<String, Long> upsertFrequencies(Long siteId, int generation, Map<String, Integer> frequencies) {
+        Map<String, Long> ids = new HashMap<>();
+        if (frequencies.isEmpty()) {
+            return ids;
+        }
+        List<String> lemmas = new ArrayList<>(frequencies.keySet());
+        Collections.sort(lemmas);
+        Integer[] lemmaFrequencies = lemmas.stream().map(frequencies::get).toArray(Integer[]::new);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPSERT_FREQUENCIES);
+            statement.setLong(1, siteId);
+            statement.setInt(2, generation);
+            statement.setArray(3, connection.createArrayOf("text", lemmas.toArray()));
+            statement.setArray(4, connection.createArrayOf("int4", lemmaFrequencies));
+            return statement;
+        }, (ResultSet rs) -> {
+            ids.put(rs.getString("lemma"), rs.getLong("id"));
+        });
+        return ids;
+    }
+
+    @Override
+    public void addToFrequencies(Map<Long, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<Long> lemmaIds = new ArrayList<>(deltas.keySet());
+        Collections.sort(lemmaIds);
+        Long[] lemmaDeltas = lemmaIds.stream().map(deltas::get).toArray(Long[]::new);
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(ADD_TO_FREQUENCIES);
+            Array ids = connection.createArrayOf("int8", lemmaIds.toArray());
+            statement.setArray(1, ids);
+            statement.setArray(2, connection.createArrayOf("int8", lemmaDeltas));
+            return statement;
+        });
+    }
+
+    /* возвращает id лемм, частота которых стала нулевой */
+    @Override
+    public List<Long> subtractFrequenciesOfPages(List<Long> pageIds) {
+        List<Long> emptied = new ArrayList<>();
+        if (pageIds.isEmpty()) {
+            return emptied;
+        }
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SUBTRACT_FREQUENCIES_OF_PAGES);
+            statement.setArray(1, connection.createArrayOf("int8", pageIds.toArray()));
+            return statement;
+        }, (ResultSet rs) -> {
+            if (rs.getInt("frequency") <= 0) {
+                emptied.add(rs.getLong("id"));
+            }
+        });
+        return emptied;
+    }
+}
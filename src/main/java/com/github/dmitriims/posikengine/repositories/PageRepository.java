@@ -1,45 +1,93 @@
 package com.github.dmitriims.posikengine.repositories;
 
 import com.github.dmitriims.posikengine.model.Page;
+import com.github.dmitriims.posikengine.dto.PageContentDTO;
 import com.github.dmitriims.posikengine.dto.PageDTO;
+import com.github.dmitriims.posikengine.dto.PageValidatorsDTO;
 import com.github.dmitriims.posikengine.model.Site;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 
 public interface PageRepository extends JpaRepository<Page, Long> {
-    long countBySite(Site site);
+    long countBySiteAndGeneration(Site site, int generation);
     Page findBySiteAndPathEquals(Site site, String path);
 
-    @Query(value = "select * from page where site_id=:siteId and path=:path", nativeQuery = true)
-    Page findBySiteIdAndPagePath(Long siteId, String path);
+    @Query(value = "select * from page where site_id=:siteId and generation=:generation and path=:path", nativeQuery = true)
+    Page findBySiteIdAndGenerationAndPagePath(Long siteId, int generation, String path);
 
+    @Query(value = "select count(p.id) from page p join site s on s.id = p.site_id where p.generation = s.generation", nativeQuery = true)
+    long countActive();
 
-    @Query(value = "select p.id from page p where p.site_id in :siteIds", nativeQuery = true)
+    @Query(value = "select count(p.id) from page p where p.site_id = :siteId and p.generation = :generation", nativeQuery = true)
+    long countBySiteIdAndGeneration(Long siteId, int generation);
+
+
+    @Query(value = "select p.id from page p join site s on s.id = p.site_id " +
+            "where p.site_id in :siteIds and p.generation = s.generation", nativeQuery = true)
     List<Long> getAllIdsBySiteId(List<Long> siteIds);
 
+    @Query(value = "select p.id as id, p.path as path, p.code as code, p.etag as etag, " +
+            "p.last_modified as lastModified, p.content_hash as contentHash, p.sitemap_lastmod as sitemapLastmod " +
+            "from page p join site s on s.id = p.site_id where p.site_id = :siteId and p.generation = s.generation", nativeQuery = true)
+    List<PageValidatorsDTO> getValidatorsBySiteId(Long siteId);
+
+    @Query(value = "select p.id as id, s.url as siteUrl, s.name as siteName, p.path as path, p.content as content " +
+            "from page p join site s on s.id = p.site_id where p.id in :pageIds", nativeQuery = true)
+    List<PageContentDTO> getContentsByIds(List<Long> pageIds);
+
+    @Query(value = "select p.content from page p where p.id = :pageId", nativeQuery = true)
+    String getContentById(Long pageId);
+
+    @Modifying
+    @Query(value = "update page set etag = :etag, last_modified = :lastModified, sitemap_lastmod = :sitemapLastmod " +
+            "where id = :pageId", nativeQuery = true)
+    void updateValidators(Long pageId, String etag, String lastModified, Long sitemapLastmod);
+
+    @Modifying
+    @Query(value = "delete from page where id in :pageIds", nativeQuery = true)
+    void deleteByIds(List<Long> pageIds);
+
+    @Modifying
+    @Query(value = "delete from page where site_id = :siteId and generation <> :generation", nativeQuery = true)
+    void deleteOtherGenerations(Long siteId, int generation);
+
+    /*
+     * пересечение, ранжирование и отбор страницы выдачи одним запросом: строки индекса с леммами запроса
+     * группируются по странице, остаются страницы, на которых нашлись все леммы, и только для limit из них
+     * читается содержимое
+     */
     @Query(
-            value = "select distinct " +
+            value = "select " +
                         "s.url as siteUrl, " +
                         "s.name as siteName, " +
                         "p.path as path, " +
                         "p.content as content, " +
-                        "sum(i.rank) over (partition by p.path) as relevance " +
-                    "from page p " +
-                    "join index i on p.id = i.page_id " +
-                    "join lemma l on l.id = i.lemma_id " +
+                        "r.relevance as relevance " +
+                    "from (" +
+                        "select i.page_id, sum(i.rank) as relevance " +
+                        "from index i " +
+                        "join lemma l on l.id = i.lemma_id " +
+                        "join site ls on ls.id = l.site_id and ls.generation = l.generation " +
+                        "where l.site_id in :siteIds " +
+                        "and l.lemma in :lemmas " +
+                        "group by i.page_id " +
+                        "having count(distinct l.lemma) = :lemmaCount " +
+                        "order by relevance desc, i.page_id " +
+                        "limit :limit " +
+                        "offset :offset" +
+                    ") r " +
+                    "join page p on p.id = r.page_id " +
                     "join site s on s.id = p.site_id " +
-                    "where l.lemma in :lemmas " +
-                    "and p.id in :pageIds " +
-                    "order by relevance desc " +
-                    "limit :limit " +
-                    "offset :offset",
+                    "order by r.relevance desc, r.page_id",
             nativeQuery = true
     )
-    List<PageDTO> getLimitedSortedPagesByLemmasAndPageIds(
+    List<PageDTO> getLimitedSortedPagesContainingAllLemmas(
+            List<Long> siteIds,
             List<String> lemmas,
-            List<Long> pageIds,
+            int lemmaCount,
             int limit,
             int offset);
 }
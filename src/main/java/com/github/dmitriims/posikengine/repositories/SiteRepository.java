@@ -3,9 +3,19 @@ package com.github.dmitriims.posikengine.repositories;
 import com.github.dmitriims.posikengine.model.Site;
 import com.github.dmitriims.posikengine.model.Status;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 public interface SiteRepository extends JpaRepository<Site, Long> {
     boolean existsByUrl(String url);
     boolean existsByStatus(Status status);
     Site findByUrl(String url);
+
+    @Query(value = "select generation from site where id = :siteId", nativeQuery = true)
+    int getGenerationById(Long siteId);
+
+    /* меняется только поколение: статус и ошибку, которые в это время пишет индексация, не перезаписываем */
+    @Modifying
+    @Query(value = "update site set generation = :generation where id = :siteId", nativeQuery = true)
+    void updateGeneration(Long siteId, int generation);
 }
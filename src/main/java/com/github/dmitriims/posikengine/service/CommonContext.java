@@ -1,5 +1,8 @@
 package com.github.dmitriims.posikengine.service;
 
+import com.github.dmitriims.posikengine.service.crawler.CrawlerHttpClient;
+import com.github.dmitriims.posikengine.service.crawler.FrontierCheckpointer;
+import com.github.dmitriims.posikengine.service.indexing.PageWriter;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
@@ -13,6 +16,9 @@ public class CommonContext {
     private DatabaseService databaseService;
     private List<String> FORBIDDEN_COMPONENTS;
     private MorphologyService morphologyService;
+    private PageWriter pageWriter;
+    private CrawlerHttpClient httpClient;
+    private FrontierCheckpointer checkpointer;
 
     private boolean isIndexing = false;
     private boolean areAllSitesIndexing = false;
@@ -25,11 +31,17 @@ public class CommonContext {
             DatabaseService databaseService,
             @Qualifier("forbiddenList")
             List<String> FORBIDDEN_COMPONENTS,
-            MorphologyService morphologyService) {
+            MorphologyService morphologyService,
+            PageWriter pageWriter,
+            CrawlerHttpClient httpClient,
+            FrontierCheckpointer checkpointer) {
         this.userAgent = userAgent;
         this.databaseService = databaseService;
         this.FORBIDDEN_COMPONENTS = FORBIDDEN_COMPONENTS;
         this.morphologyService = morphologyService;
+        this.pageWriter = pageWriter;
+        this.httpClient = httpClient;
+        this.checkpointer = checkpointer;
     }
 
     public void resetIndexingMessage() {
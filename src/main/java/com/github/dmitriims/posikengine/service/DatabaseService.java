@@ -1,18 +1,34 @@
 package com.github.dmitriims.posikengine.service;
 
 import com.github.dmitriims.posikengine.dto.FilteredLemmaDTO;
+import com.github.dmitriims.posikengine.dto.LemmaIdDTO;
+import com.github.dmitriims.posikengine.dto.PageContentDTO;
 import com.github.dmitriims.posikengine.dto.PageDTO;
+import com.github.dmitriims.posikengine.dto.PageValidatorsDTO;
+import com.github.dmitriims.posikengine.dto.RankedPageDTO;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
 import com.github.dmitriims.posikengine.model.*;
 import com.github.dmitriims.posikengine.repositories.*;
+import com.github.dmitriims.posikengine.service.crawler.KnownPage;
+import com.github.dmitriims.posikengine.service.indexing.LemmaDictionary;
+import com.github.dmitriims.posikengine.service.indexing.PageWriteTask;
+import com.github.dmitriims.posikengine.service.search.InvertedIndex;
+import com.github.dmitriims.posikengine.service.search.ScoredPage;
+import com.github.dmitriims.posikengine.service.search.SearchResultCache;
 import lombok.NoArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,60 +42,117 @@ public class DatabaseService {
 
     private Logger log = LoggerFactory.getLogger(DatabaseService.class);
 
-    private Map<Long, Set<Long>> savedPagesPerSite = new HashMap<>();
+    private final Map<Long, Set<Long>> savedPagesPerSite = new ConcurrentHashMap<>();
+
+    private final LemmaDictionary lemmaDictionary = new LemmaDictionary();
+
+    private boolean indexCopy;
+
+    private TransactionTemplate transactionTemplate;
+
+    private InvertedIndex invertedIndex;
+
+    private SearchResultCache searchResultCache;
+
+    private static final int PAGE_DELETE_CHUNK = 500;
 
     @Autowired
     public DatabaseService(SiteRepository siteRepository, PageRepository pageRepository, LemmaRepository lemmaRepository,
-                           IndexRepository indexRepository, FieldRepository fieldRepository) {
+                           IndexRepository indexRepository, FieldRepository fieldRepository, IndexingSettings indexingSettings,
+                           PlatformTransactionManager transactionManager, InvertedIndex invertedIndex,
+                           SearchResultCache searchResultCache) {
         this.siteRepository = siteRepository;
         this.pageRepository = pageRepository;
         this.lemmaRepository = lemmaRepository;
         this.indexRepository = indexRepository;
         this.fieldRepository = fieldRepository;
+        this.indexCopy = indexingSettings.isIndexCopy();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.invertedIndex = invertedIndex;
+        this.searchResultCache = searchResultCache;
     }
 
     @Transactional
-    public void saveOrUpdatePage(Page page, List<Lemma> originalLemmas, CommonContext commonContext) {
-        Page pageToReindex = pageRepository.findBySiteIdAndPagePath(page.getSite().getId(), page.getPath());
-        if (pageToReindex == null) {
-            savePageToDataBase(page, originalLemmas, commonContext);
-            return;
-        }
-        if (page.equals(pageToReindex)) {
-            addPageToSavedPagesMap(pageToReindex);
-            setSiteStatusToIndexing(page.getSite().getId());
-            return;
+    public void saveOrUpdatePages(List<PageWriteTask> tasks) {
+        List<PageWriteTask> pagesToSave = new ArrayList<>();
+        List<Long> pagesToReindex = new ArrayList<>();
+        Set<Long> touchedSites = new HashSet<>();
+        for (PageWriteTask task : tasks) {
+            Page page = task.getPage();
+            touchedSites.add(page.getSite().getId());
+            Page pageToReindex = pageRepository.findBySiteIdAndGenerationAndPagePath(page.getSite().getId(),
+                    page.getGeneration(), page.getPath());
+            if (pageToReindex == null) {
+                pagesToSave.add(task);
+                continue;
+            }
+            pageToReindex.setEtag(page.getEtag());
+            pageToReindex.setLastModified(page.getLastModified());
+            pageToReindex.setSitemapLastmod(page.getSitemapLastmod());
+            if (page.equals(pageToReindex)) {
+                pageToReindex.setContentHash(page.getContentHash());
+                addPageToSavedPagesMap(pageToReindex);
+                continue;
+            }
+            pagesToReindex.add(pageToReindex.getId());
+            pageToReindex.setCode(page.getCode());
+            pageToReindex.setContent(page.getContent());
+            pageToReindex.setContentHash(page.getContentHash());
+            pageToReindex.setLemmasHashcode(page.getLemmasHashcode());
+            pagesToSave.add(new PageWriteTask(pageToReindex, task.getLemmas()));
         }
-        dropOldIndexesAndDecrementLemmasFrequencies(pageToReindex.getId());
-        savePageToDataBase(page, originalLemmas, commonContext);
+
+        dropOldIndexesAndDecrementLemmasFrequencies(pagesToReindex);
+        pageRepository.saveAll(pagesToSave.stream().map(PageWriteTask::getPage).toList())
+                .forEach(this::addPageToSavedPagesMap);
+        saveNewLemmasAndIndexes(pagesToSave);
+        touchedSites.forEach(this::setSiteStatusToIndexing);
+        /* страницы нового, ещё не активного поколения на результаты поиска не влияют */
+        Set<Long> searchedSites = pagesToSave.stream().map(PageWriteTask::getPage)
+                .filter(page -> page.getGeneration() == page.getSite().getGeneration())
+                .map(page -> page.getSite().getId())
+                .collect(Collectors.toSet());
+        afterCommit(() -> {
+            pagesToSave.forEach(task -> invertedIndex.putPage(task.getPage(), task.getLemmas()));
+            searchedSites.forEach(searchResultCache::invalidateSite);
+        });
     }
 
+    public void addPageToSavedPagesMap(Page page) {
+        addPageToSavedPagesMap(page.getSite().getId(), page.getId());
+    }
 
-    public void savePageToDataBase(Page page, List<Lemma> lemmas, CommonContext commonContext) {
-        Page savedPage = pageRepository.findBySiteAndPathEquals(page.getSite(), page.getPath());
+    /* страница считается сохранённой только после фиксации: откаченная пачка не должна помешать удалению пропавших страниц */
+    public void addPageToSavedPagesMap(Long siteId, Long pageId) {
+        afterCommit(() -> savedPagesPerSite.computeIfAbsent(siteId, id -> ConcurrentHashMap.newKeySet()).add(pageId));
+    }
 
-        if (savedPage == null) {
-            savedPage = pageRepository.save(page);
-        } else if (!savedPage.equals(page)) {
-            savedPage.setCode(page.getCode());
-            savedPage.setPath(page.getPath());
-            savedPage.setContent(page.getContent());
-            savedPage.setLemmasHashcode(page.getLemmasHashcode());
-            savedPage = pageRepository.saveAndFlush(savedPage);
+    @Transactional
+    public Map<String, KnownPage> getKnownPages(Site site) {
+        Map<String, KnownPage> knownPages = new ConcurrentHashMap<>();
+        for (PageValidatorsDTO v : pageRepository.getValidatorsBySiteId(site.getId())) {
+            knownPages.put(v.getPath(), new KnownPage(v.getId(), v.getPath(), v.getCode(), v.getEtag(), v.getLastModified(),
+                    v.getContentHash(), v.getSitemapLastmod()));
         }
-        addPageToSavedPagesMap(savedPage);
-        saveNewLemmasAndIndexes(savedPage, lemmas);
-        setIndexingStatusOnCompletion(page.getSite(), commonContext);
+        return knownPages;
     }
 
-    public void addPageToSavedPagesMap(Page page) {
-        if (!savedPagesPerSite.containsKey(page.getSite().getId())) {
-            savedPagesPerSite.put(page.getSite().getId(), new HashSet<>());
+    @Transactional
+    public void markPageAsUnchanged(Long siteId, KnownPage knownPage, String etag, String lastModified, Long sitemapLastmod) {
+        if (!Objects.equals(knownPage.getEtag(), etag) || !Objects.equals(knownPage.getLastModified(), lastModified) ||
+                (sitemapLastmod != null && !sitemapLastmod.equals(knownPage.getSitemapLastmod()))) {
+            pageRepository.updateValidators(knownPage.getId(), etag, lastModified,
+                    sitemapLastmod == null ? knownPage.getSitemapLastmod() : sitemapLastmod);
         }
-        savedPagesPerSite.get(page.getSite().getId()).add(page.getId());
+        addPageToSavedPagesMap(siteId, knownPage.getId());
     }
 
     @Transactional
+    public String getPageContent(Long pageId) {
+        return pageRepository.getContentById(pageId);
+    }
+
+    /* каждая пачка страниц удаляется своей транзакцией, чтобы сайт, потерявший много страниц, не держал одну огромную */
     public boolean removeDeletedPagesForSite(Long siteId) {
         Set<Long> savedPagesSet = savedPagesPerSite.get(siteId);
         if(savedPagesSet == null) {
@@ -90,68 +163,263 @@ public class DatabaseService {
         if (pagesInDb.size() > savedPagesSet.size()) {
             log.info("удаляю из базы данных страницы, которых больше нет на сайте " + siteRepository.findById(siteId).orElseThrow().getUrl());
             pagesInDb.removeAll(savedPagesSet);
-            for (Long pageId : pagesInDb) {
-                dropOldIndexesAndDecrementLemmasFrequencies(pageId);
-                pageRepository.deleteById(pageId);
+            List<Long> pagesToDelete = new ArrayList<>(pagesInDb);
+            Collections.sort(pagesToDelete);
+            for (int i = 0; i < pagesToDelete.size(); i += PAGE_DELETE_CHUNK) {
+                List<Long> chunk = pagesToDelete.subList(i, Math.min(i + PAGE_DELETE_CHUNK, pagesToDelete.size()));
+                transactionTemplate.executeWithoutResult(status -> deletePages(siteId, chunk));
             }
-            log.info("удаление лишних страниц завершено");
+            log.info("удаление лишних страниц завершено, удалено страниц: " + pagesToDelete.size());
 
         }
         savedPagesPerSite.remove(siteId);
         return true;
     }
 
-    @Transactional
-    public void cleanSavedPagesCache() {
-        savedPagesPerSite = new HashMap<>();
-    }
-
-    public void dropOldIndexesAndDecrementLemmasFrequencies(Long pageId) {
-        List<Index> indexesToDelete = indexRepository.findAllByPage_Id(pageId);
-        Lemma lemmaToUpdate;
-        int newFrequency;
-        for (Index index : indexesToDelete) {
-            lemmaToUpdate = index.getLemma();
-            newFrequency = lemmaToUpdate.getFrequency() - index.getCount();
-            indexRepository.deleteById(index.getId());
-            if (newFrequency <= 0) {
-                lemmaRepository.deleteById(lemmaToUpdate.getId());
+    private void deletePages(Long siteId, List<Long> pageIds) {
+        List<Long> emptiedLemmas = lemmaRepository.subtractFrequenciesOfPages(pageIds);
+        indexRepository.deleteByPageIds(pageIds);
+        if (!emptiedLemmas.isEmpty()) {
+            lemmaRepository.deleteUnusedByIds(emptiedLemmas);
+        }
+        pageRepository.deleteByIds(pageIds);
+        afterCommit(() -> {
+            invertedIndex.removePages(siteId, pageIds);
+            searchResultCache.invalidateSite(siteId);
+        });
+    }
+
+    public void forgetSavedPages(Long siteId) {
+        savedPagesPerSite.remove(siteId);
+    }
+
+    /*
+     * частоты лемм уменьшаются одним запросом на всю пачку страниц. Леммы с нулевой частотой здесь не удаляются:
+     * их id могут быть в словаре сайта, поэтому они удаляются в конце обхода
+     */
+    public void dropOldIndexesAndDecrementLemmasFrequencies(List<Long> pageIds) {
+        if (pageIds.isEmpty()) {
+            return;
+        }
+        lemmaRepository.subtractFrequenciesOfPages(pageIds);
+        indexRepository.deleteByPageIds(pageIds);
+    }
+
+    public void saveNewLemmasAndIndexes(List<PageWriteTask> tasks) {
+        Map<Site, List<PageWriteTask>> tasksPerSite = tasks.stream().collect(Collectors.groupingBy(t -> t.getPage().getSite()));
+        List<Index> newIndexes = new ArrayList<>();
+        for (Map.Entry<Site, List<PageWriteTask>> siteTasks : tasksPerSite.entrySet()) {
+            Map<Integer, List<PageWriteTask>> tasksPerGeneration = siteTasks.getValue().stream()
+                    .collect(Collectors.groupingBy(t -> t.getPage().getGeneration()));
+            for (Map.Entry<Integer, List<PageWriteTask>> generationTasks : tasksPerGeneration.entrySet()) {
+                Map<String, Lemma> savedLemmas = saveLemmas(siteTasks.getKey(), generationTasks.getKey(), generationTasks.getValue());
+                for (PageWriteTask task : generationTasks.getValue()) {
+                    for (Lemma lemma : task.getLemmas()) {
+                        newIndexes.add(new Index(task.getPage(), savedLemmas.get(lemma.getLemma()), lemma.getRank(), lemma.getFrequency()));
+                    }
+                }
+            }
+        }
+        if (indexCopy) {
+            /* COPY идёт мимо Hibernate: сначала сбрасываем в базу страницы и удаление старых строк индекса */
+            indexRepository.flush();
+            indexRepository.copyIndexes(newIndexes);
+        } else {
+            indexRepository.saveAll(newIndexes);
+        }
+    }
+
+    /*
+     * id известных лемм берутся из словаря сайта, а леммы, которых в нём нет, пишутся одним запросом insert ... on conflict:
+     * если такую лемму уже успел записать другой писатель, к её частоте просто прибавится наша. Прибавка к частоте
+     * известных лемм и id новых попадают в словарь только после фиксации транзакции, чтобы откат пачки не оставил в нём лишнего
+     */
+    public Map<String, Lemma> saveLemmas(Site site, int generation, List<PageWriteTask> tasks) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (PageWriteTask task : tasks) {
+            for (Lemma newLemma : task.getLemmas()) {
+                frequencies.merge(newLemma.getLemma(), newLemma.getFrequency(), Integer::sum);
+            }
+        }
+
+        Map<String, Long> lemmaIds = lemmaDictionary.getLemmaIds(site.getId(), generation,
+                () -> loadLemmaIds(site.getId(), generation));
+        Map<String, Lemma> savedLemmas = new HashMap<>();
+        Map<Long, Long> frequencyDeltas = new HashMap<>();
+        Map<String, Integer> unknownLemmas = new HashMap<>();
+        for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+            Long id = lemmaIds.get(frequency.getKey());
+            if (id == null) {
+                unknownLemmas.put(frequency.getKey(), frequency.getValue());
                 continue;
             }
-            lemmaToUpdate.setFrequency(newFrequency);
-            lemmaRepository.save(lemmaToUpdate);
+            savedLemmas.put(frequency.getKey(), lemmaRepository.getReferenceById(id));
+            frequencyDeltas.put(id, (long) frequency.getValue());
         }
+
+        Map<String, Long> insertedIds = lemmaRepository.upsertFrequencies(site.getId(), generation, unknownLemmas);
+        insertedIds.forEach((lemma, id) -> savedLemmas.put(lemma, lemmaRepository.getReferenceById(id)));
+        afterCommit(() -> {
+            insertedIds.forEach((lemma, id) -> lemmaDictionary.addLemmaId(site.getId(), generation, lemma, id));
+            lemmaDictionary.addFrequencyDeltas(site.getId(), frequencyDeltas);
+        });
+        return savedLemmas;
     }
 
-    public void saveNewLemmasAndIndexes(Page page, List<Lemma> newLemmas) {
-        List<Lemma> lemmasFromDB = lemmaRepository.findAllBySiteAndLemmaIn(page.getSite(), newLemmas.stream().map(Lemma::getLemma).collect(Collectors.toList()));
-        List<Lemma> savedLemmas = saveLemmas(newLemmas, lemmasFromDB);
-        saveIndexes(page, newLemmas, savedLemmas);
+    private Map<String, Long> loadLemmaIds(Long siteId, int generation) {
+        Map<String, Long> ids = new HashMap<>();
+        for (LemmaIdDTO lemmaId : lemmaRepository.getLemmaIdsBySiteIdAndGeneration(siteId, generation)) {
+            ids.put(lemmaId.getLemma(), lemmaId.getId());
+        }
+        return ids;
     }
 
-    public List<Lemma> saveLemmas(List<Lemma> newLemmas, List<Lemma> lemmasFromDB) {
-        List<Lemma> lemmasToFlush = new ArrayList<>();
-        for (Lemma newLemma : newLemmas) {
-            int j = lemmasFromDB.indexOf(newLemma);
-            if (j < 0) {
-                lemmasToFlush.add(newLemma);
-                continue;
+    /*
+     * изменения частот, накопленные в словаре, записываются одним запросом на сайт, каждый сайт своей транзакцией:
+     * откат записи одного сайта не затрагивает уже записанные частоты других
+     */
+    public void flushLemmaFrequencies(Collection<Long> siteIds) {
+        for (Long siteId : siteIds) {
+            transactionTemplate.executeWithoutResult(status -> writeLemmaFrequencies(siteId));
+        }
+    }
+
+    public void flushAllLemmaFrequencies() {
+        flushLemmaFrequencies(new ArrayList<>(lemmaDictionary.getSiteIds()));
+    }
+
+    /* обход сайта закончен: записываем частоты, удаляем леммы, которые больше нигде не встречаются, и забываем словарь */
+    @Transactional
+    public void finishLemmaDictionary(Long siteId) {
+        writeLemmaFrequencies(siteId);
+        lemmaRepository.deleteUnusedBySiteId(siteId);
+        lemmaDictionary.remove(siteId);
+    }
+
+    /*
+     * забранные изменения возвращаются в словарь, если транзакция откатится, в том числе при ошибке фиксации.
+     * От частот зависит, какие леммы отбрасываются как слишком частые, поэтому после фиксации результаты поиска по сайту устаревают
+     */
+    private void writeLemmaFrequencies(Long siteId) {
+        Map<Long, Long> deltas = lemmaDictionary.drainFrequencyDeltas(siteId);
+        if (deltas.isEmpty()) {
+            return;
+        }
+        afterRollback(() -> lemmaDictionary.addFrequencyDeltas(siteId, deltas));
+        lemmaRepository.addToFrequencies(deltas);
+        afterCommit(() -> searchResultCache.invalidateSite(siteId));
+    }
+
+    /* новое поколение сайта начинается с чистого листа: остатки прерванного и не возобновлённого обхода удаляются */
+    @Transactional
+    public int startNewGeneration(Long siteId) {
+        Site site = siteRepository.findById(siteId).orElseThrow();
+        dropOtherGenerations(siteId, site.getGeneration());
+        return site.getGeneration() + 1;
+    }
+
+    /*
+     * обход нового поколения закончен: поиск переключается на него одним обновлением строки сайта,
+     * после чего старое поколение удаляется целиком. Если в новом поколении нет ни одной страницы, остаётся старое
+     */
+    public boolean switchGeneration(Long siteId, int generation) {
+        boolean switched = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            if (pageRepository.countBySiteIdAndGeneration(siteId, generation) == 0) {
+                return false;
             }
-            Lemma oldLemma = lemmasFromDB.get(j);
-            oldLemma.setFrequency(oldLemma.getFrequency() + newLemma.getFrequency());
-            lemmasToFlush.add(oldLemma);
+            siteRepository.updateGeneration(siteId, generation);
+            return true;
+        }));
+        if (switched) {
+            loadInvertedIndex(siteId);
+            searchResultCache.invalidateSite(siteId);
         }
-        return lemmaRepository.saveAllAndFlush(lemmasToFlush);
+        int activeGeneration = siteRepository.getGenerationById(siteId);
+        log.info((switched ? "поиск переключён на поколение " : "новое поколение пустое, остаётся поколение ") + activeGeneration +
+                " сайта с id " + siteId + ", удаляю остальные поколения");
+        transactionTemplate.executeWithoutResult(status -> dropOtherGenerations(siteId, activeGeneration));
+        lemmaDictionary.remove(siteId);
+        return switched;
     }
 
-    public void saveIndexes(Page page, List<Lemma> newLemmas, List<Lemma> savedLemmas) {
-        List<Index> newIndexes = new ArrayList<>();
-        for (Lemma lemma : savedLemmas) {
-            int i = newLemmas.indexOf(lemma);
-            Lemma originalLemma = newLemmas.get(i);
-            newIndexes.add(new Index(page, lemma, originalLemma.getRank(), originalLemma.getFrequency()));
+    /* сохранённые результаты поиска по сайту больше не действуют */
+    public void invalidateSearchResults(Long siteId) {
+        searchResultCache.invalidateSite(siteId);
+    }
+
+    /* индекс для поиска в памяти загружается в фоне, пока он не готов, поиск идёт через базу */
+    public void loadInvertedIndexInBackground() {
+        if (!invertedIndex.isEnabled()) {
+            return;
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                loadInvertedIndex(null);
+            } catch (RuntimeException e) {
+                log.error("не удалось загрузить индекс для поиска в память, поиск будет идти через базу: " + e);
+            }
+        }, "Search-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /* siteId == null - все сайты; сайт, переключившийся на новое поколение, загружается заново целиком */
+    private void loadInvertedIndex(Long siteId) {
+        if (!invertedIndex.isEnabled()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        InvertedIndex.Loader loader = invertedIndex.newLoader(siteId == null);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<Site> sites = siteId == null ? siteRepository.findAll() : List.of(siteRepository.findById(siteId).orElseThrow());
+                for (Site site : sites) {
+                    loader.addSite(site.getId(), site.getGeneration());
+                    pageRepository.getAllIdsBySiteId(List.of(site.getId())).forEach(id -> loader.addPage(site.getId(), id));
+                }
+                if (!sites.isEmpty()) {
+                    indexRepository.streamActiveIndexRows(sites.stream().map(Site::getId).toList(), loader::addPosting);
+                }
+            });
+            loader.install();
+        } finally {
+            loader.close();
         }
-        indexRepository.saveAllAndFlush(newIndexes);
+        log.info("индекс для поиска " + (siteId == null ? "" : "сайта с id " + siteId + " ") + "загружен в память за " +
+                (System.currentTimeMillis() - start) + " мс");
+    }
+
+    private void dropOtherGenerations(Long siteId, int generation) {
+        indexRepository.deleteOtherGenerations(siteId, generation);
+        lemmaRepository.deleteOtherGenerations(siteId, generation);
+        pageRepository.deleteOtherGenerations(siteId, generation);
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void afterRollback(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    action.run();
+                }
+            }
+        });
     }
 
     @Transactional
@@ -192,15 +460,6 @@ public class DatabaseService {
     }
 
 
-    public void setIndexingStatusOnCompletion(Site site, CommonContext commonContext) {
-        if (commonContext.isIndexing()) {
-            setSiteStatusToIndexing(site.getId());
-        } else {
-            setSiteStatusToFailed(site.getId(), commonContext.getIndexingMessage());
-        }
-    }
-
-
     @Transactional
     public List<String> filterPopularLemmasOut(List<Site> sites, List<String> lemmas, double threshold) {
         return lemmaRepository.filterVeryPopularLemmas(
@@ -211,17 +470,32 @@ public class DatabaseService {
 
     @Transactional
     public List<PageDTO> getSortedRelevantPageDTOs(List<String> lemmas, List<Long> sites, int limit, int offset) {
-        List<Long> relevantPages = new ArrayList<>();
-        for (String lemma : lemmas) {
-            if (relevantPages.isEmpty()) {
-                relevantPages = pageRepository.getAllIdsBySiteId(sites);
-            }
-            relevantPages = indexRepository.findPageIdsBySiteInAndLemmaAndPageIdsIn(sites, lemma, relevantPages);
-            if (relevantPages.isEmpty()) {
-                return new ArrayList<>();
+        List<String> distinctLemmas = lemmas.stream().distinct().toList();
+        if (distinctLemmas.isEmpty() || sites.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return pageRepository.getLimitedSortedPagesContainingAllLemmas(sites, distinctLemmas, distinctLemmas.size(), limit, offset);
+    }
+
+    /* содержимое нужно только для страниц, которые попали в выдачу; порядок страниц сохраняется */
+    @Transactional
+    public List<PageDTO> getRankedPageDTOs(List<ScoredPage> rankedPages) {
+        if (rankedPages.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, PageContentDTO> contents = new HashMap<>();
+        for (PageContentDTO content : pageRepository.getContentsByIds(rankedPages.stream().map(ScoredPage::getPageId).toList())) {
+            contents.put(content.getId(), content);
+        }
+        List<PageDTO> pages = new ArrayList<>();
+        for (ScoredPage rankedPage : rankedPages) {
+            PageContentDTO content = contents.get(rankedPage.getPageId());
+            if (content != null) {
+                pages.add(new RankedPageDTO(content.getSiteUrl(), content.getSiteName(), content.getPath(),
+                        content.getContent(), rankedPage.getRelevance()));
             }
         }
-        return pageRepository.getLimitedSortedPagesByLemmasAndPageIds(lemmas, relevantPages, limit, offset);
+        return pages;
     }
 
     @Transactional
@@ -236,22 +510,22 @@ public class DatabaseService {
 
     @Transactional
     public long pageCount() {
-        return pageRepository.count();
+        return pageRepository.countActive();
     }
 
     @Transactional
     public long lemmaCount() {
-        return lemmaRepository.count();
+        return lemmaRepository.countActive();
     }
 
     @Transactional
     public long countPagesBySite(Site site) {
-        return pageRepository.countBySite(site);
+        return pageRepository.countBySiteAndGeneration(site, site.getGeneration());
     }
 
     @Transactional
     public long countLemmasBySite(Site site) {
-        return lemmaRepository.countBySite(site);
+        return lemmaRepository.countBySiteAndGeneration(site, site.getGeneration());
     }
 
     @Transactional
@@ -1,19 +1,18 @@
 package com.github.dmitriims.posikengine.service;
 
 import com.github.dmitriims.posikengine.model.Site;
+import com.github.dmitriims.posikengine.service.crawler.CrawlerContext;
 import lombok.AllArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.TimeUnit;
 
 @AllArgsConstructor
 public class IndexingMonitor implements Runnable {
 
-    private Map<Site, ForkJoinPool> poolsToMonitor;
+    private Map<Site, CrawlerContext> contextsToMonitor;
     private CommonContext commonContext;
 
     private final Logger log = LoggerFactory.getLogger(IndexingMonitor.class);
@@ -23,47 +22,68 @@ public class IndexingMonitor implements Runnable {
         try {
             while (true) {
                 Thread.sleep(1000);
-                if (poolsToMonitor.isEmpty()) {
+                if (contextsToMonitor.isEmpty()) {
                     commonContext.setIndexing(false);
                     break;
                 }
 
-                Iterator<Map.Entry<Site, ForkJoinPool>> it = poolsToMonitor.entrySet().iterator();
+                Iterator<Map.Entry<Site, CrawlerContext>> it = contextsToMonitor.entrySet().iterator();
                 while (it.hasNext()) {
-                    Map.Entry<Site, ForkJoinPool> pool = it.next();
+                    Map.Entry<Site, CrawlerContext> pool = it.next();
 
-                    if (pool.getValue().isShutdown()) {
-                        log.info("ожидаю, пока рабочие завершат все текущие задачи для сайта " + pool.getKey().getUrl());
-                        if (!pool.getValue().awaitTermination(10, TimeUnit.SECONDS)) {
-                            log.warn("пул не остановился за заданный период ожидания, отпускаю фронт");
-                        }
-                        synchronized (commonContext.getDatabaseService()) {
-                            commonContext.getDatabaseService().cleanSavedPagesCache();
-                            commonContext.getDatabaseService().setSiteStatusToFailed(pool.getKey().getId(), "Индексация прервана пользователем");
+                    if (pool.getValue().isStopped()) {
+                        if (!pool.getValue().getLinksInWork().isEmpty() ||
+                                commonContext.getPageWriter().hasPendingPages(pool.getKey().getId())) {
+                            log.info("ожидаю, пока рабочие завершат все текущие задачи для сайта " + pool.getKey().getUrl());
+                            continue;
                         }
+                        commonContext.getDatabaseService().forgetSavedPages(pool.getKey().getId());
+                        commonContext.getDatabaseService().finishLemmaDictionary(pool.getKey().getId());
+                        commonContext.getDatabaseService().setSiteStatusToFailed(pool.getKey().getId(), "Индексация прервана пользователем");
+                        commonContext.getDatabaseService().invalidateSearchResults(pool.getKey().getId());
                         log.info("индексация прервана для сайта " + pool.getKey().getUrl());
                         commonContext.setAreAllSitesIndexing(false);
                         it.remove();
                         continue;
                     }
 
-                    if (pool.getValue().isQuiescent()) {
-                        synchronized (commonContext.getDatabaseService()) {
-                            boolean indexedAnything = true;
-                            if(commonContext.isIndexingOnePage()) {
-                                commonContext.setIndexingOnePage(false);
-                            } else {
-                                indexedAnything = commonContext.getDatabaseService().removeDeletedPagesForSite(pool.getKey().getId());
-                            }
-                            if(indexedAnything) {
-                                commonContext.getDatabaseService().setSiteStatusToIndexed(pool.getKey().getId());
-                            } else {
-                                commonContext.getDatabaseService().setSiteStatusToFailed(pool.getKey().getId(), "Ничего не проиндексировано");
-                            }
+                    if (pool.getValue().isFinished() && !commonContext.getPageWriter().hasPendingPages(pool.getKey().getId())) {
+                        boolean indexedAnything = true;
+                        if(commonContext.isIndexingOnePage()) {
+                            commonContext.setIndexingOnePage(false);
+                        } else if (pool.getValue().isNewGeneration()) {
+                            /* старые страницы уйдут вместе со старым поколением */
+                            commonContext.getDatabaseService().forgetSavedPages(pool.getKey().getId());
+                        } else if (pool.getValue().isResumed() || pool.getValue().isTruncated()) {
+                            /*
+                             * после возобновления или при обходе, упёршемся в лимиты, неизвестно, каких страниц
+                             * на сайте больше нет: не встреченная страница могла просто не поместиться в лимит,
+                             * поэтому ничего не удаляем. Забываются только страницы этого сайта: другие сайты
+                             * ещё могут обходиться
+                             */
+                            log.info("обход сайта " + pool.getKey().getUrl() + (pool.getValue().isResumed() ? " был возобновлён" : " упёрся в лимиты") +
+                                    ", страницы, которые не встретились при обходе, не удаляются");
+                            commonContext.getDatabaseService().forgetSavedPages(pool.getKey().getId());
+                        } else {
+                            indexedAnything = commonContext.getDatabaseService().removeDeletedPagesForSite(pool.getKey().getId());
+                        }
+                        commonContext.getDatabaseService().finishLemmaDictionary(pool.getKey().getId());
+                        if (pool.getValue().isNewGeneration()) {
+                            indexedAnything = commonContext.getDatabaseService().switchGeneration(pool.getKey().getId(),
+                                    pool.getValue().getGeneration());
                         }
+                        if(indexedAnything) {
+                            commonContext.getDatabaseService().setSiteStatusToIndexed(pool.getKey().getId());
+                        } else {
+                            commonContext.getDatabaseService().setSiteStatusToFailed(pool.getKey().getId(), "Ничего не проиндексировано");
+                        }
+                        commonContext.getDatabaseService().invalidateSearchResults(pool.getKey().getId());
                         commonContext.setAreAllSitesIndexing(false);
                         log.info("закончена индексация для сайта " + pool.getKey().getUrl());
-                        pool.getValue().shutdownNow();
+                        pool.getValue().setStopped(true);
+                        if (!pool.getValue().isReindexOnePage()) {
+                            commonContext.getCheckpointer().delete(pool.getKey());
+                        }
                         it.remove();
                     }
                 }
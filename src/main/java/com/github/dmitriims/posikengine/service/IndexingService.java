@@ -1,6 +1,7 @@
 package com.github.dmitriims.posikengine.service;
 
 import com.github.dmitriims.posikengine.dto.IndexingStatusResponse;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
 import com.github.dmitriims.posikengine.dto.userprovaideddata.SiteUrlAndNameDTO;
 import com.github.dmitriims.posikengine.dto.userprovaideddata.UserProvidedData;
 import com.github.dmitriims.posikengine.exceptions.IndexingStatusException;
@@ -8,7 +9,10 @@ import com.github.dmitriims.posikengine.model.Field;
 import com.github.dmitriims.posikengine.model.Site;
 import com.github.dmitriims.posikengine.model.Status;
 import com.github.dmitriims.posikengine.service.crawler.CrawlerContext;
-import com.github.dmitriims.posikengine.service.crawler.CrawlerService;
+import com.github.dmitriims.posikengine.service.crawler.LinkPriority;
+import com.github.dmitriims.posikengine.service.crawler.PolitenessScheduler;
+import com.github.dmitriims.posikengine.service.crawler.SitemapSeeder;
+import com.github.dmitriims.posikengine.service.crawler.UrlFingerprintSet;
 import com.github.dmitriims.posikengine.service.indexing.RobotsTxtFactory;
 import crawlercommons.robots.BaseRobotRules;
 import crawlercommons.robots.SimpleRobotRulesParser;
@@ -21,7 +25,6 @@ import java.io.IOException;
 import java.net.URLConnection;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 @Service
@@ -31,18 +34,28 @@ public class IndexingService {
     private SimpleRobotRulesParser robotsParser;
     private CommonContext commonContext;
     private RobotsTxtFactory robotsTxtFactory;
+    private PolitenessScheduler politenessScheduler;
+    private IndexingSettings indexingSettings;
+    private LinkPriority linkPriority;
+    private SitemapSeeder sitemapSeeder;
 
-    private Map<Site, ForkJoinPool> sitePools;
+    private Map<Site, CrawlerContext> siteContexts;
     @Getter
     private Thread indexingMonitorTread;
 
     private final Logger log = LoggerFactory.getLogger(IndexingService.class);
 
-    public IndexingService(UserProvidedData userProvidedData, SimpleRobotRulesParser robotsParser, CommonContext commonContext, RobotsTxtFactory robotsTxtFactory) {
+    public IndexingService(UserProvidedData userProvidedData, SimpleRobotRulesParser robotsParser, CommonContext commonContext,
+                           RobotsTxtFactory robotsTxtFactory, PolitenessScheduler politenessScheduler, IndexingSettings indexingSettings,
+                           LinkPriority linkPriority, SitemapSeeder sitemapSeeder) {
         this.userProvidedData = userProvidedData;
         this.robotsParser = robotsParser;
         this.commonContext = commonContext;
         this.robotsTxtFactory = robotsTxtFactory;
+        this.politenessScheduler = politenessScheduler;
+        this.indexingSettings = indexingSettings;
+        this.linkPriority = linkPriority;
+        this.sitemapSeeder = sitemapSeeder;
     }
 
     public boolean isIndexing() {
@@ -57,6 +70,16 @@ public class IndexingService {
         return commonContext.getDatabaseService().getSiteByUrl(siteUrl).getStatus().equals(Status.INDEXING);
     }
 
+    public Optional<UrlFingerprintSet> getVisitedPages(String siteUrl) {
+        if (siteContexts == null) {
+            return Optional.empty();
+        }
+        return siteContexts.values().stream()
+                .filter(c -> c.getSite().getUrl().equals(siteUrl))
+                .map(CrawlerContext::getVisitedPages)
+                .findFirst();
+    }
+
     public void setIndexing(boolean flag) {
         commonContext.setIndexing(flag);
     }
@@ -72,7 +95,7 @@ public class IndexingService {
             wasNotIndexing = true;
             commonContext.setIndexing(true);
             commonContext.resetIndexingMessage();
-            sitePools = new ConcurrentHashMap<>();
+            siteContexts = new ConcurrentHashMap<>();
         }
 
         List<Site> sites = commonContext.getDatabaseService().getAllSites();
@@ -94,14 +117,14 @@ public class IndexingService {
     public IndexingStatusResponse indexSite(String siteUrl) throws IOException, IndexingStatusException {
         boolean wasNotIndexing = false;
 
-        if (sitePools != null && sitePools.containsKey(commonContext.getDatabaseService().getSiteByUrl(siteUrl))) {
+        if (siteContexts != null && siteContexts.containsKey(commonContext.getDatabaseService().getSiteByUrl(siteUrl))) {
             throw new IndexingStatusException("Индексация для сайта " + siteUrl + " уже запущена");
         }
         if (!isIndexing()) {
             wasNotIndexing = true;
             commonContext.setIndexing(true);
             commonContext.resetIndexingMessage();
-            sitePools = new ConcurrentHashMap<>();
+            siteContexts = new ConcurrentHashMap<>();
         }
         Site site = commonContext.getDatabaseService().getSiteByUrl(siteUrl);
         List<Field> fields = commonContext.getDatabaseService().getAllFields();
@@ -114,14 +137,18 @@ public class IndexingService {
         if (!commonContext.isIndexing()) {
             throw new IndexingStatusException("Индексация не запущена");
         }
+        /* состояние сохраняется до остановки, пока планировщик не очистил очереди */
+        for (CrawlerContext context : siteContexts.values()) {
+            if (!context.isReindexOnePage()) {
+                commonContext.getCheckpointer().save(context);
+            }
+        }
         commonContext.setIndexing(false);
         commonContext.setIndexingMessage("Индексация прервана пользователем");
 
         log.info("индексация останавливается, рабочим отправлена команда остановиться");
-        Iterator<Map.Entry<Site, ForkJoinPool>> it = sitePools.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<Site, ForkJoinPool> pool = it.next();
-            pool.getValue().shutdownNow();
+        for (CrawlerContext context : siteContexts.values()) {
+            context.setStopped(true);
         }
 
         try {
@@ -133,6 +160,45 @@ public class IndexingService {
         return new IndexingStatusResponse(true, null);
     }
 
+    public IndexingStatusResponse resumeIndexing() throws IOException, IndexingStatusException {
+        List<Site> sites = commonContext.getDatabaseService().getAllSites();
+        sites.removeIf(site -> (siteContexts != null && siteContexts.containsKey(site)) ||
+                !commonContext.getCheckpointer().exists(site));
+        if (sites.isEmpty()) {
+            throw new IndexingStatusException("Нет сохранённого состояния индексации");
+        }
+
+        boolean wasNotIndexing = false;
+        if (!isIndexing()) {
+            wasNotIndexing = true;
+            commonContext.setIndexing(true);
+            commonContext.resetIndexingMessage();
+            siteContexts = new ConcurrentHashMap<>();
+        }
+        List<Field> fields = commonContext.getDatabaseService().getAllFields();
+        for (Site site : sites) {
+            CrawlerContext context = generateCrawlerContext(site, Integer.MAX_VALUE, fields);
+            if (!commonContext.getCheckpointer().restore(context)) {
+                continue;
+            }
+            if (!context.isNewGeneration()) {
+                context.setKnownPages(commonContext.getDatabaseService().getKnownPages(site));
+            }
+            context.setResumed(true);
+            startClock(context);
+            siteContexts.put(site, context);
+            commonContext.getCheckpointer().register(context);
+            politenessScheduler.register(context);
+            log.info("возобновлена индексация для сайта " + site.getUrl() + ", ссылок в очереди: " + context.getFrontier().size());
+        }
+        if (siteContexts.isEmpty()) {
+            commonContext.setIndexing(false);
+            throw new IndexingStatusException("Нет сохранённого состояния индексации");
+        }
+        startMonitoringThreadIfWasNotIndexing(wasNotIndexing, "Indexing-monitor");
+        return new IndexingStatusResponse(true, null);
+    }
+
     public IndexingStatusResponse indexOnePage(String url) throws IOException, IndexingStatusException {
 
         boolean wasNotIndexing = false;
@@ -143,7 +209,7 @@ public class IndexingService {
             throw new IndexingStatusException("Страницы с типом \"" + URLConnection.guessContentTypeFromName(url) + "\" не участвуют в индексировании");
         }
 
-        sitePools = new ConcurrentHashMap<>();
+        siteContexts = new ConcurrentHashMap<>();
         List<Field> fields = commonContext.getDatabaseService().getAllFields();
         List<String> userProvidedSitesUrls = userProvidedData.getSites().stream().map(SiteUrlAndNameDTO::getUrl).collect(Collectors.toList());
 
@@ -161,7 +227,7 @@ public class IndexingService {
             wasNotIndexing = true;
             commonContext.setIndexing(true);
             commonContext.resetIndexingMessage();
-            sitePools = new ConcurrentHashMap<>();
+            siteContexts = new ConcurrentHashMap<>();
         }
 
         Site site = commonContext.getDatabaseService().getSiteByUrl(siteUrl);
@@ -181,38 +247,97 @@ public class IndexingService {
     public void addSiteAndStartIndexing(Site site, int limit, List<Field> fields) throws IOException {
         CrawlerContext currentContext = generateCrawlerContext(site, limit, fields);
         currentContext.setReindexOnePage(false);
-        CrawlerService crawler = new CrawlerService(currentContext, commonContext);
-        launchIndexing(currentContext, crawler);
+        if (indexingSettings.isGenerationReindex()) {
+            /* новое поколение строится с нуля, поэтому известные страницы не нужны: все страницы загружаются заново */
+            currentContext.setGeneration(commonContext.getDatabaseService().startNewGeneration(site.getId()));
+            currentContext.setNewGeneration(true);
+        } else {
+            currentContext.setKnownPages(commonContext.getDatabaseService().getKnownPages(site));
+        }
+        commonContext.getCheckpointer().delete(site);
+        commonContext.getCheckpointer().register(currentContext);
+        launchIndexing(currentContext, site.getUrl());
+        sitemapSeeder.seed(currentContext, getTopLevelUrl(site.getUrl()));
         log.info("запущена индексация для сайта " + site.getUrl());
     }
 
     public void addOnePageAndIndex(Site site, String url, List<Field> fields) throws IOException {
         CrawlerContext currentContext = generateCrawlerContext(site, 1, fields);
         currentContext.setReindexOnePage(true);
-        CrawlerService crawler = new CrawlerService(url, currentContext, commonContext);
-        launchIndexing(currentContext, crawler);
+        launchIndexing(currentContext, url);
         log.info("индексируется одна страница: " + url);
     }
 
-    private void launchIndexing(CrawlerContext context, CrawlerService crawler) {
-        sitePools.put(context.getSite(), context.getThisPool());
-        sitePools.get(context.getSite()).execute(crawler);
+    private void launchIndexing(CrawlerContext context, String startUrl) {
+        siteContexts.put(context.getSite(), context);
+        startClock(context);
+        context.addToFrontier(startUrl);
+        politenessScheduler.register(context);
     }
 
     public CrawlerContext generateCrawlerContext(Site site, int limit, List<Field> fields) throws IOException {
         String topLevelSite = getTopLevelUrl(site.getUrl());
-        ForkJoinPool pool = new ForkJoinPool();
         BaseRobotRules robotRules = robotsParser.parseContent(
                 topLevelSite + "/robots.txt",
                 robotsTxtFactory.getRobotsTxt(topLevelSite),
                 "text/plain",
                 commonContext.getUserAgent());
-        return new CrawlerContext(site, pool, limit, new HashSet<>(fields), robotRules);
+        CrawlerContext context = new CrawlerContext(site, limit, new HashSet<>(fields), robotRules);
+        context.setVisitedPages(new UrlFingerprintSet(indexingSettings.getVisitedStripes(), indexingSettings.getVisitedBloomFilterSize()));
+        context.setMinDelay(indexingSettings.getMinDelay());
+        context.setMaxDelay(indexingSettings.getMaxDelay());
+        context.setMaxBodySize(indexingSettings.getMaxBodySize());
+        context.setMaxThreads(indexingSettings.getMaxThreadsPerSite());
+        context.setLinkPriority(linkPriority);
+        context.setMaxDepth(indexingSettings.getMaxDepth());
+        context.setMaxBytes(indexingSettings.getMaxBytes());
+        context.setMaxFrontierSize(indexingSettings.getMaxFrontierSize());
+        siteSettings(site).ifPresent(siteSettings -> {
+            if (siteSettings.getMinDelay() != null) {
+                context.setMinDelay(siteSettings.getMinDelay());
+            }
+            if (siteSettings.getMaxDelay() != null) {
+                context.setMaxDelay(siteSettings.getMaxDelay());
+            }
+            if (siteSettings.getWeight() != null) {
+                context.setWeight(siteSettings.getWeight());
+            }
+            if (siteSettings.getMaxThreads() != null) {
+                context.setMaxThreads(siteSettings.getMaxThreads());
+            }
+            if (siteSettings.getMaxDepth() != null) {
+                context.setMaxDepth(siteSettings.getMaxDepth());
+            }
+            if (siteSettings.getMaxBytes() != null) {
+                context.setMaxBytes(siteSettings.getMaxBytes());
+            }
+        });
+        int maxPages = siteSettings(site)
+                .map(SiteUrlAndNameDTO::getMaxPages)
+                .orElse(indexingSettings.getMaxPages());
+        if (maxPages > 0 && maxPages < limit) {
+            context.getNumberOfPagesToCrawl().set(maxPages);
+        }
+        return context;
+    }
+
+    /* время обхода считается с момента запуска или возобновления */
+    private void startClock(CrawlerContext context) {
+        long maxCrawlTime = siteSettings(context.getSite())
+                .map(SiteUrlAndNameDTO::getMaxCrawlTime)
+                .orElse(indexingSettings.getMaxCrawlTime());
+        context.setDeadline(maxCrawlTime > 0 ? System.currentTimeMillis() + maxCrawlTime * 1000 : 0);
+    }
+
+    private Optional<SiteUrlAndNameDTO> siteSettings(Site site) {
+        return userProvidedData.getSites().stream()
+                .filter(s -> s.getUrl().equals(site.getUrl()))
+                .findFirst();
     }
 
     private void startMonitoringThreadIfWasNotIndexing(boolean wasNotIndexing, String name) {
         if (wasNotIndexing) {
-            indexingMonitorTread = new Thread(new IndexingMonitor(sitePools, commonContext), name);
+            indexingMonitorTread = new Thread(new IndexingMonitor(siteContexts, commonContext), name);
             indexingMonitorTread.start();
         }
     }
@@ -5,44 +5,55 @@ import com.github.dmitriims.posikengine.model.Lemma;
 import com.github.dmitriims.posikengine.service.crawler.CrawlerContext;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import org.jsoup.select.QueryParser;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LemmaUtils {
 
+    /*
+     * документ обходится один раз и не меняется: у каждого элемента есть набор полей, селекторы которых подходят
+     * к нему или к его предкам, а текст относится к полям своего элемента. Текст внутри других полей не считается
+     * текстом title и body, как раньше, когда такие элементы удалялись из документа. Каждое слово приводится
+     * к нормальным формам один раз, а ранг леммы складывается из весов полей, в которых она встретилась
+     */
     public static List<Lemma> getAndRankAllLemmas(Document doc, CrawlerContext context, MorphologyService morphologyService) throws IOException {
-        List<Lemma> allLemmas = new ArrayList<>();
-        for (Field f : context.getFields()) {
-            Elements fieldElements = doc.select(f.getSelector());
-            for(Element fieldElement : fieldElements) {
-                String fieldText = fieldElement.text();
-                for (Map.Entry<String, Integer> lemmaCount : getAndCountNormalFormsInString(fieldText, morphologyService).entrySet()) {
-                    Lemma tempLemma = new Lemma();
-                    tempLemma.setSite(context.getSite());
-                    tempLemma.setLemma(lemmaCount.getKey());
-                    tempLemma.setFrequency(lemmaCount.getValue());
-                    tempLemma.setRank(lemmaCount.getValue() * f.getWeight());
+        List<Field> fields = new ArrayList<>(context.getFields());
+        if (fields.size() > Long.SIZE) {
+            throw new IllegalArgumentException("полей для индексации не может быть больше " + Long.SIZE);
+        }
+        fields.sort(Comparator.comparingDouble(Field::getWeight).reversed().thenComparing(Field::getSelector));
 
-                    int index = allLemmas.indexOf(tempLemma);
-                    if (index < 0) {
-                        allLemmas.add(tempLemma);
-                        continue;
-                    }
-                    Lemma toUpdate = allLemmas.get(index);
-                    toUpdate.setFrequency(toUpdate.getFrequency() + tempLemma.getFrequency());
-                    toUpdate.setRank(
-                            Math.ceil((toUpdate.getRank() + tempLemma.getRank()) * 10) / 10
-                    );
+        FieldTextCollector collector = new FieldTextCollector(doc, fields, morphologyService);
+        NodeTraversor.traverse(collector, doc);
+        collector.flush();
+
+        List<Lemma> allLemmas = new ArrayList<>(collector.pageLemmas.size());
+        for (Map.Entry<String, int[]> entry : collector.pageLemmas.entrySet()) {
+            int[] counts = entry.getValue();
+            double rank = 0;
+            boolean first = true;
+            for (int i = 0; i < fields.size(); i++) {
+                if (counts[i + 1] == 0) {
+                    continue;
                 }
+                double fieldRank = counts[i + 1] * fields.get(i).getWeight();
+                rank = first ? fieldRank : Math.ceil((rank + fieldRank) * 10) / 10;
+                first = false;
             }
-            if(!f.getSelector().equals("title") && !f.getSelector().equals("body")) {
-                fieldElements.remove();
-            }
+            Lemma lemma = new Lemma();
+            lemma.setSite(context.getSite());
+            lemma.setLemma(entry.getKey());
+            lemma.setFrequency(counts[0]);
+            lemma.setRank(rank);
+            allLemmas.add(lemma);
         }
         return allLemmas;
     }
@@ -57,16 +68,97 @@ public class LemmaUtils {
 
     public static Map<String, Integer> getAndCountNormalFormsInString(String input, MorphologyService morphologyService) {
         Map<String, Integer> dictionaryWithCount = new TreeMap<>();
-        String[] words = morphologyService.splitStringToLowercaseWords(input);
-
-        for (String word : words) {
-            List<String> normalForms = morphologyService.getNormalFormOfAWord(word);
-            if (normalForms.size() == 0) {
-                continue;
+        morphologyService.forEachLowercaseWord(input, word -> {
+            for (String normalForm : morphologyService.getNormalFormOfAWord(word)) {
+                dictionaryWithCount.merge(normalForm, 1, Integer::sum);
             }
-            normalForms.forEach(w -> dictionaryWithCount.put(w, dictionaryWithCount.getOrDefault(w, 0) + 1));
-        }
+        });
         return dictionaryWithCount;
     }
 
+    /*
+     * копит подряд идущий текст с одинаковым набором полей и отдаёт его на разбор, когда набор меняется.
+     * Блочные элементы и <br> разделяют слова, как в Element.text()
+     */
+    private static final class FieldTextCollector implements NodeVisitor {
+        private static final Map<String, Evaluator> EVALUATORS = new ConcurrentHashMap<>();
+
+        private final Document doc;
+        private final Evaluator[] evaluators;
+        private final long containerFields;
+        private final int fieldCount;
+        private final MorphologyService morphologyService;
+        private final Map<String, int[]> pageLemmas = new LinkedHashMap<>();
+        private final StringBuilder text = new StringBuilder();
+        private long[] elementFields = new long[32];
+        private long textFields;
+
+        private FieldTextCollector(Document doc, List<Field> fields, MorphologyService morphologyService) {
+            this.doc = doc;
+            this.fieldCount = fields.size();
+            this.morphologyService = morphologyService;
+            this.evaluators = new Evaluator[fieldCount];
+            long containers = 0;
+            for (int i = 0; i < fieldCount; i++) {
+                String selector = fields.get(i).getSelector();
+                evaluators[i] = EVALUATORS.computeIfAbsent(selector, QueryParser::parse);
+                if (selector.equals("title") || selector.equals("body")) {
+                    containers |= 1L << i;
+                }
+            }
+            this.containerFields = containers;
+        }
+
+        @Override
+        public void head(Node node, int depth) {
+            if (node instanceof Element element) {
+                long matched = depth > 0 ? elementFields[depth - 1] : 0;
+                for (int i = 0; i < fieldCount; i++) {
+                    if ((matched & (1L << i)) == 0 && evaluators[i].matches(doc, element)) {
+                        matched |= 1L << i;
+                    }
+                }
+                if (depth >= elementFields.length) {
+                    elementFields = Arrays.copyOf(elementFields, elementFields.length * 2);
+                }
+                elementFields[depth] = matched;
+                if (element.isBlock() || element.normalName().equals("br")) {
+                    text.append(' ');
+                }
+            } else if (node instanceof TextNode textNode && depth > 0) {
+                long fields = elementFields[depth - 1];
+                long ownFields = fields & ~containerFields;
+                fields = ownFields != 0 ? ownFields : fields;
+                if (fields != textFields) {
+                    flush();
+                    textFields = fields;
+                }
+                text.append(textNode.getWholeText());
+            }
+        }
+
+        @Override
+        public void tail(Node node, int depth) {
+            if (node instanceof Element element && element.isBlock()) {
+                text.append(' ');
+            }
+        }
+
+        private void flush() {
+            if (textFields != 0 && !text.isEmpty()) {
+                morphologyService.forEachLowercaseWord(text.toString(), word -> {
+                    for (String normalForm : morphologyService.getNormalFormOfAWord(word)) {
+                        int[] counts = pageLemmas.computeIfAbsent(normalForm, k -> new int[fieldCount + 1]);
+                        counts[0]++;
+                        for (int i = 0; i < fieldCount; i++) {
+                            if ((textFields & (1L << i)) != 0) {
+                                counts[i + 1]++;
+                            }
+                        }
+                    }
+                });
+            }
+            text.setLength(0);
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package com.github.dmitriims.posikengine.service;
+
+import com.github.dmitriims.posikengine.dto.MetricsResponse;
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Service
+@AllArgsConstructor
+public class MetricsService {
+
+    List<MetricsSource> sources;
+
+    public MetricsResponse getMetrics() {
+        Map<String, Map<String, Number>> metrics = new TreeMap<>();
+        for (MetricsSource source : sources) {
+            metrics.put(source.getMetricsName(), source.getMetrics());
+        }
+        return new MetricsResponse(true, metrics);
+    }
+}
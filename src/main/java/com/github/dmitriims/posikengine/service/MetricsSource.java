@@ -0,0 +1,14 @@
+package com.github.dmitriims.posikengine.service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public interface MetricsSource {
+    String getMetricsName();
+
+    Map<String, Number> getMetrics();
+
+    static double averageMillis(long totalNanos, long count) {
+        return count == 0 ? 0.0 : (double) TimeUnit.NANOSECONDS.toMicros(totalNanos) / count / 1000;
+    }
+}
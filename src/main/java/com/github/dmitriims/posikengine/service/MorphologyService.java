@@ -1,74 +1,209 @@
 package com.github.dmitriims.posikengine.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.MorphologySettings;
 import org.apache.lucene.morphology.LuceneMorphology;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 @Service
-public class MorphologyService {
+public class MorphologyService implements MetricsSource {
+
+    private static final int DEFAULT_NORMAL_FORM_CACHE_SIZE = 100000;
+    /* служебные части речи: союзы, междометия, предлоги, частицы и артикли леммами не считаются */
+    private static final Set<String> RUSSIAN_STOP_PARTS_OF_SPEECH = Set.of("СОЮЗ", "МЕЖД", "ПРЕДЛ", "ЧАСТ");
+    private static final Set<String> ENGLISH_STOP_PARTS_OF_SPEECH = Set.of("CONJ", "INT", "PREP", "PART", "ARTICLE");
 
     private String NOT_A_WORD_PATTERN;
     private LuceneMorphology russianLuceneMorph;
     private LuceneMorphology englishLuceneMorph;
+    /* частота слов в текстах очень неравномерна, поэтому почти все обращения к словарям попадают в кеш */
+    private final Cache<String, List<String>> normalForms;
+    private final int normalFormCacheSize;
+    private final boolean usesDefaultPattern;
+
+    public MorphologyService(String NOT_A_WORD_PATTERN, LuceneMorphology russianLuceneMorph, LuceneMorphology englishLuceneMorph) {
+        this(NOT_A_WORD_PATTERN, russianLuceneMorph, englishLuceneMorph, DEFAULT_NORMAL_FORM_CACHE_SIZE);
+    }
 
+    @Autowired
     public MorphologyService(
             @Qualifier("notAWord")
             String NOT_A_WORD_PATTERN,
             @Qualifier("russianMorphology")
             LuceneMorphology russianLuceneMorph,
             @Qualifier("englishMorphology")
-            LuceneMorphology englishLuceneMorph) {
+            LuceneMorphology englishLuceneMorph,
+            MorphologySettings settings) {
+        this(NOT_A_WORD_PATTERN, russianLuceneMorph, englishLuceneMorph, settings.getNormalFormCacheSize());
+    }
+
+    public MorphologyService(String NOT_A_WORD_PATTERN, LuceneMorphology russianLuceneMorph, LuceneMorphology englishLuceneMorph,
+                             int normalFormCacheSize) {
         this.NOT_A_WORD_PATTERN = NOT_A_WORD_PATTERN;
         this.russianLuceneMorph = russianLuceneMorph;
         this.englishLuceneMorph = englishLuceneMorph;
+        this.usesDefaultPattern = WordTokenizer.NOT_A_WORD_PATTERN.equals(NOT_A_WORD_PATTERN);
+        this.normalFormCacheSize = Math.max(0, normalFormCacheSize);
+        this.normalForms = this.normalFormCacheSize == 0 ? null : Caffeine.newBuilder()
+                .maximumSize(this.normalFormCacheSize)
+                .recordStats()
+                .build();
     }
 
+    /* возвращаемый список неизменяемый, пустой список означает, что у слова нет нормальной формы */
     public List<String> getNormalFormOfAWord(String word) {
-        word = word.replaceAll("ё", "е");
-        if (russianLuceneMorph.checkString(word) && !isRussianGarbage(russianLuceneMorph.getMorphInfo(word))) {
-            return russianLuceneMorph.getNormalForms(word);
-        } else if (englishLuceneMorph.checkString(word) && !isEnglishGarbage(englishLuceneMorph.getMorphInfo(word))) {
-            return englishLuceneMorph.getNormalForms(word);
-        } else if (word.chars().allMatch(Character::isDigit)){
-            return Collections.singletonList(word);
+        if (normalForms == null) {
+            return lookUpNormalForms(word);
+        }
+        return normalForms.get(word, this::lookUpNormalForms);
+    }
+
+    List<String> lookUpNormalForms(String word) {
+        word = word.replace('ё', 'е');
+        switch (classify(word)) {
+            case CYRILLIC:
+                return lookUpInDictionary(russianLuceneMorph, RUSSIAN_STOP_PARTS_OF_SPEECH, word);
+            case LATIN:
+                return lookUpInDictionary(englishLuceneMorph, ENGLISH_STOP_PARTS_OF_SPEECH, word);
+            case DIGITS:
+                return List.of(word);
+            case MIXED:
+                return List.of();
+            default:
+                List<String> russian = lookUpInDictionary(russianLuceneMorph, RUSSIAN_STOP_PARTS_OF_SPEECH, word);
+                return russian.isEmpty() ? lookUpInDictionary(englishLuceneMorph, ENGLISH_STOP_PARTS_OF_SPEECH, word) : russian;
+        }
+    }
+
+    private List<String> lookUpInDictionary(LuceneMorphology morphology, Set<String> stopPartsOfSpeech, String word) {
+        if (!morphology.checkString(word) || isStopWord(morphology.getMorphInfo(word), stopPartsOfSpeech)) {
+            return List.of();
         }
-        return new ArrayList<>();
+        return List.copyOf(morphology.getNormalForms(word));
+    }
+
+    /*
+     * Словари не пересекаются по алфавиту: русский принимает только строчные русские буквы и дефис, английский -
+     * строчные латинские и дефис, а числа не ищутся ни в одном. Поэтому по символам слова сразу видно,
+     * в какой словарь идти, и второй словарь зря не опрашивается. В OTHER попадают слова из одних дефисов,
+     * которые подходят обоим словарям, их проверяем по очереди, как раньше
+     */
+    static Script classify(String word) {
+        boolean cyrillic = false;
+        boolean latin = false;
+        boolean digits = false;
+        boolean hyphens = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c >= 'а' && c <= 'я') {
+                cyrillic = true;
+            } else if (c >= 'a' && c <= 'z') {
+                latin = true;
+            } else if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '-') {
+                hyphens = true;
+            } else if (Character.isDigit(c)) {
+                digits = true;
+            } else {
+                return Script.MIXED;
+            }
+        }
+        if (digits) {
+            return cyrillic || latin || hyphens ? Script.MIXED : Script.DIGITS;
+        }
+        if (cyrillic) {
+            return latin ? Script.MIXED : Script.CYRILLIC;
+        }
+        return latin ? Script.LATIN : Script.OTHER;
+    }
+
+    enum Script {
+        CYRILLIC, LATIN, DIGITS, MIXED, OTHER
     }
 
     public String[] splitStringToLowercaseWords(String input) {
-        return Arrays.stream(input.toLowerCase(Locale.ROOT)
-                        .replaceAll(NOT_A_WORD_PATTERN, " ")
-                        .trim()
-                        .split(" "))
-                .filter(s -> !s.isBlank()).toArray(String[]::new);
+        List<String> words = new ArrayList<>();
+        forEachLowercaseWord(input, words::add);
+        return words.toArray(new String[0]);
+    }
+
+    /* слова отдаются по одному, без промежуточных копий всего текста */
+    public void forEachLowercaseWord(String input, Consumer<String> action) {
+        if (!usesDefaultPattern) {
+            for (String word : splitWithPattern(input.toLowerCase(Locale.ROOT))) {
+                action.accept(word);
+            }
+            return;
+        }
+        WordTokenizer.tokenize(input, true, (text, start, end) -> action.accept(WordTokenizer.lowercase(text, start, end)));
     }
 
     public String[] splitStringToWords(String sentence) {
-        return Arrays.stream(sentence.replaceAll(NOT_A_WORD_PATTERN, " ")
+        if (!usesDefaultPattern) {
+            return splitWithPattern(sentence);
+        }
+        List<String> words = new ArrayList<>();
+        WordTokenizer.tokenize(sentence, (text, start, end) -> words.add(text.subSequence(start, end).toString()));
+        return words.toArray(new String[0]);
+    }
+
+    /* если в настройках задано другое выражение, делим текст им */
+    private String[] splitWithPattern(String input) {
+        return Arrays.stream(input.replaceAll(NOT_A_WORD_PATTERN, " ")
                         .trim()
                         .split(" "))
                 .filter(s -> !s.isBlank()).toArray(String[]::new);
     }
 
     boolean isRussianGarbage(List<String> morphInfos) {
-        for(String variant : morphInfos) {
-            if (variant.contains(" СОЮЗ") || variant.contains(" МЕЖД") ||
-                    variant.contains(" ПРЕДЛ") || variant.contains(" ЧАСТ")) {
-                return true;
-            }
-        }
-        return false;
+        return isStopWord(morphInfos, RUSSIAN_STOP_PARTS_OF_SPEECH);
     }
 
     boolean isEnglishGarbage (List<String> morphInfos) {
-        for(String variant : morphInfos) {
-            if (variant.contains(" CONJ") || variant.contains(" INT") ||
-                    variant.contains(" PREP") || variant.contains(" PART") ||  variant.contains(" ARTICLE")) {
+        return isStopWord(morphInfos, ENGLISH_STOP_PARTS_OF_SPEECH);
+    }
+
+    /* описание формы выглядит как "или|a СОЮЗ": часть речи - первое слово после кода, её ищем в наборе */
+    static boolean isStopWord(List<String> morphInfos, Set<String> stopPartsOfSpeech) {
+        for (String variant : morphInfos) {
+            int start = variant.indexOf(' ', variant.indexOf('|') + 1) + 1;
+            if (start == 0) {
+                continue;
+            }
+            int end = variant.indexOf(' ', start);
+            if (stopPartsOfSpeech.contains(end < 0 ? variant.substring(start) : variant.substring(start, end))) {
                 return true;
             }
         }
         return false;
     }
-}
\ No newline at end of file
+
+    @Override
+    public String getMetricsName() {
+        return "morphology";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("normalFormCacheSize", normalFormCacheSize);
+        if (normalForms == null) {
+            return metrics;
+        }
+        CacheStats stats = normalForms.stats();
+        metrics.put("normalFormCacheEntries", normalForms.estimatedSize());
+        metrics.put("normalFormCacheHits", stats.hitCount());
+        metrics.put("normalFormCacheMisses", stats.missCount());
+        metrics.put("normalFormCacheHitRatio", stats.hitRate());
+        metrics.put("normalFormCacheEvictions", stats.evictionCount());
+        return metrics;
+    }
+}
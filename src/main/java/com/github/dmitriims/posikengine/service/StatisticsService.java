@@ -6,6 +6,7 @@ import com.github.dmitriims.posikengine.dto.statistics.StatisticsResponse;
 import com.github.dmitriims.posikengine.dto.statistics.Total;
 import com.github.dmitriims.posikengine.model.Site;
 import com.github.dmitriims.posikengine.model.Status;
+import com.github.dmitriims.posikengine.service.crawler.UrlFingerprintSet;
 import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Service;
 
@@ -13,12 +14,14 @@ import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
 
 @Service
 @AllArgsConstructor
 public class StatisticsService {
 
     DatabaseService dbService;
+    IndexingService indexingService;
 
     public StatisticsResponse getStatistics() {
 
@@ -27,13 +30,16 @@ public class StatisticsService {
         List<Detailed> detailed = new ArrayList<>();
         List<Site> sites = dbService.getAllSites();
         for (Site site : sites) {
+            Optional<UrlFingerprintSet> visited = indexingService.getVisitedPages(site.getUrl());
             Detailed d = new Detailed(site.getUrl(),
                     site.getName(),
                     site.getStatus(),
                     site.getStatusTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
                     site.getLastError(),
                     dbService.countPagesBySite(site),
-                    dbService.countLemmasBySite(site));
+                    dbService.countLemmasBySite(site),
+                    visited.map(UrlFingerprintSet::size).orElse(0L),
+                    visited.map(UrlFingerprintSet::memoryFootprint).orElse(0L));
             detailed.add(d);
         }
         detailed.sort(Comparator.comparing(Detailed::getName));
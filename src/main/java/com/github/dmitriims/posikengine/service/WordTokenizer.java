@@ -0,0 +1,113 @@
+package com.github.dmitriims.posikengine.service;
+
+/*
+ * Делит текст на слова так же, как замена по регулярному выражению NOT_A_WORD_PATTERN на пробел с последующим split,
+ * но без копий текста: слова отдаются как границы внутри исходной строки. Словом считается непрерывная
+ * последовательность русских и латинских букв, ё, цифр и дефисов, а дефис, окружённый пробелами (и, возможно,
+ * точками), считается тире и разделяет слова.
+ */
+public final class WordTokenizer {
+
+    public static final String NOT_A_WORD_PATTERN = "(?:\\.*\\s+\\-\\s+\\.*)|[^\\-а-яА-Яa-zA-Z\\d\\ё\\Ё]+";
+
+    @FunctionalInterface
+    public interface TokenConsumer {
+        void accept(CharSequence text, int start, int end);
+    }
+
+    private WordTokenizer() {
+    }
+
+    public static void tokenize(CharSequence text, TokenConsumer consumer) {
+        tokenize(text, false, consumer);
+    }
+
+    /* при ignoreCase символ считается буквой, если буквой является его строчный вариант, как после toLowerCase */
+    public static void tokenize(CharSequence text, boolean ignoreCase, TokenConsumer consumer) {
+        int length = text.length();
+        int tokenStart = -1;
+        int i = 0;
+        while (i < length) {
+            if (isWordChar(text.charAt(i), ignoreCase)) {
+                if (tokenStart < 0) {
+                    tokenStart = i;
+                }
+                i++;
+                continue;
+            }
+            if (tokenStart >= 0) {
+                consumer.accept(text, tokenStart, i);
+                tokenStart = -1;
+            }
+            /* как и в выражении, сначала пробуем тире, затем пропускаем всю последовательность прочих символов */
+            int dashEnd = matchDash(text, i);
+            if (dashEnd >= 0) {
+                i = dashEnd;
+                continue;
+            }
+            while (i < length && !isWordChar(text.charAt(i), ignoreCase)) {
+                i++;
+            }
+        }
+        if (tokenStart >= 0) {
+            consumer.accept(text, tokenStart, length);
+        }
+    }
+
+    public static String lowercase(CharSequence text, int start, int end) {
+        char[] chars = new char[end - start];
+        boolean changed = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            char lower = Character.toLowerCase(c);
+            changed |= lower != c;
+            chars[i - start] = lower;
+        }
+        if (!changed && text instanceof String) {
+            return ((String) text).substring(start, end);
+        }
+        return new String(chars);
+    }
+
+    /* первая альтернатива выражения: \.*\s+-\s+\.* начиная с позиции start, -1 если не подходит */
+    static int matchDash(CharSequence text, int start) {
+        int length = text.length();
+        int i = start;
+        while (i < length && text.charAt(i) == '.') {
+            i++;
+        }
+        int spaces = i;
+        while (i < length && isSpace(text.charAt(i))) {
+            i++;
+        }
+        if (i == spaces || i >= length || text.charAt(i) != '-') {
+            return -1;
+        }
+        i++;
+        spaces = i;
+        while (i < length && isSpace(text.charAt(i))) {
+            i++;
+        }
+        if (i == spaces) {
+            return -1;
+        }
+        while (i < length && text.charAt(i) == '.') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWordChar(char c, boolean ignoreCase) {
+        return isWordChar(c) || (ignoreCase && isWordChar(Character.toLowerCase(c)));
+    }
+
+    static boolean isWordChar(char c) {
+        return c == '-' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                (c >= 'а' && c <= 'я') || (c >= 'А' && c <= 'Я') || c == 'ё' || c == 'Ё';
+    }
+
+    /* \s без флага UNICODE_CHARACTER_CLASS */
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import okhttp3.Dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class CachingDns implements Dns {
+
+    private final Dns delegate;
+    private final long ttlNanos;
+    private final Map<String, CachedAddresses> cache = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    CachingDns(Dns delegate, long ttlSeconds) {
+        this.delegate = delegate;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        CachedAddresses cached = cache.get(hostname);
+        long now = System.nanoTime();
+        if (cached != null && now - cached.resolvedAt < ttlNanos) {
+            hits.incrementAndGet();
+            return cached.addresses;
+        }
+        misses.incrementAndGet();
+        List<InetAddress> addresses = delegate.lookup(hostname);
+        cache.put(hostname, new CachedAddresses(addresses, now));
+        return addresses;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private static final class CachedAddresses {
+        private final List<InetAddress> addresses;
+        private final long resolvedAt;
+
+        private CachedAddresses(List<InetAddress> addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
@@ -5,32 +5,139 @@ import com.github.dmitriims.posikengine.model.Site;
 import crawlercommons.robots.BaseRobotRules;
 import lombok.Data;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Data
 public class CrawlerContext {
     private Site site;
-    private ForkJoinPool thisPool;
-    private Set<String> visitedPages;
+    private String host;
+    private UrlFingerprintSet visitedPages;
+    private Map<String, KnownPage> knownPages;
+    private Map<String, Long> sitemapLastmods;
+    private Queue<FrontierEntry> frontier;
+    private AtomicInteger pendingLinks;
+    private Set<FrontierEntry> linksInWork;
     private AtomicInteger numberOfPagesToCrawl;
+    private AtomicLong downloadedBytes;
+    private LinkPriority linkPriority = (link, depth) -> 0;
+    private int maxDepth;
+    private long maxBytes;
+    private long deadline;
+    private int maxFrontierSize;
     private Set<Field> fields;
     private Random delayGenerator;
+    private int minDelay;
+    private int maxDelay;
+    private int maxBodySize;
+    private int weight = 1;
+    private int maxThreads = 1;
+    private volatile boolean stopped;
     private BaseRobotRules robotsRules;
 
     private boolean reindexOnePage;
+    private boolean resumed;
+    private int generation;
+    private boolean newGeneration;
+    private volatile boolean truncated;
 
-    public CrawlerContext(Site site, ForkJoinPool thisPool, int pagesToCrawlLimit, Set<Field> fields, BaseRobotRules robotsRules) {
+    public CrawlerContext(Site site, int pagesToCrawlLimit, Set<Field> fields, BaseRobotRules robotsRules) {
         this.site = site;
-        this.thisPool = thisPool;
+        this.generation = site.getGeneration();
         this.fields = fields;
         this.robotsRules = robotsRules;
 
-        this.visitedPages = ConcurrentHashMap.newKeySet();
+        String siteHost = URI.create(site.getUrl()).getHost();
+        this.host = siteHost == null ? site.getUrl() : siteHost;
+        this.visitedPages = new UrlFingerprintSet();
+        this.knownPages = new ConcurrentHashMap<>();
+        this.sitemapLastmods = new ConcurrentHashMap<>();
+        this.frontier = new PriorityBlockingQueue<>(64, FrontierEntry.CRAWL_ORDER);
+        this.pendingLinks = new AtomicInteger();
+        this.linksInWork = ConcurrentHashMap.newKeySet();
         this.numberOfPagesToCrawl = new AtomicInteger(pagesToCrawlLimit);
+        this.downloadedBytes = new AtomicLong();
         this.delayGenerator = new Random(System.currentTimeMillis());
     }
+
+    public void addToFrontier(String link) {
+        addToFrontier(new FrontierEntry(link, 0, 0));
+    }
+
+    /*
+     * ссылка глубже разрешённого запоминается как посещённая: обход идёт в ширину, и ближе к главной она уже не встретится.
+     * При переполненной очереди ссылка не запоминается и может попасть в очередь позже
+     */
+    public boolean addToFrontier(String link, int depth) {
+        return addToFrontier(link, depth, linkPriority.priority(link, depth));
+    }
+
+    public boolean addToFrontier(String link, int depth, double priority) {
+        if (maxDepth > 0 && depth > maxDepth) {
+            visitedPages.add(link);
+            truncated = true;
+            return false;
+        }
+        if (maxFrontierSize > 0 && frontier.size() >= maxFrontierSize) {
+            truncated = true;
+            return false;
+        }
+        addToFrontier(new FrontierEntry(link, depth, priority));
+        return true;
+    }
+
+    public void addToFrontier(FrontierEntry entry) {
+        visitedPages.add(entry.getUrl());
+        pendingLinks.incrementAndGet();
+        frontier.add(entry);
+    }
+
+    /*
+     * ссылка переходит из очереди в работу под тем же замком, под которым снимается состояние для сохранения,
+     * поэтому в сохранённое состояние она попадает либо из очереди, либо из ссылок в работе
+     */
+    public FrontierEntry takeToWork() {
+        synchronized (frontier) {
+            FrontierEntry entry = frontier.poll();
+            if (entry != null) {
+                linksInWork.add(entry);
+            }
+            return entry;
+        }
+    }
+
+    /* ссылки в работе и в очереди, которые придётся загрузить при возобновлении обхода */
+    public List<FrontierEntry> snapshotPendingEntries() {
+        synchronized (frontier) {
+            List<FrontierEntry> entries = new ArrayList<>(linksInWork);
+            entries.addAll(frontier);
+            return entries;
+        }
+    }
+
+    public void linkProcessed() {
+        pendingLinks.decrementAndGet();
+    }
+
+    public void addDownloadedBytes(long bytes) {
+        downloadedBytes.addAndGet(bytes);
+    }
+
+    public boolean isOverBudget() {
+        return (maxBytes > 0 && downloadedBytes.get() >= maxBytes) ||
+                (deadline > 0 && System.currentTimeMillis() >= deadline);
+    }
+
+    public boolean isFinished() {
+        return pendingLinks.get() <= 0;
+    }
 }
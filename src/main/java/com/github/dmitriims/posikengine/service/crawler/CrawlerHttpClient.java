@@ -0,0 +1,115 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.HttpClientSettings;
+import com.github.dmitriims.posikengine.service.MetricsSource;
+import okhttp3.*;
+import okhttp3.brotli.BrotliInterceptor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Один клиент на всё приложение: соединения с хостами остаются открытыми и переиспользуются между страницами
+ * и robots.txt, поэтому TCP и TLS рукопожатия случаются один раз на хост, а не на каждую страницу. Где сервер
+ * умеет HTTP/2, запросы идут по нему. Ответы в gzip и brotli распаковываются прозрачно, адреса хостов кешируются.
+ */
+@Component
+public class CrawlerHttpClient implements MetricsSource {
+
+    private final OkHttpClient client;
+    private final String userAgent;
+    private final CachingDns dns;
+    private final ConnectionStatistics statistics = new ConnectionStatistics();
+
+    public CrawlerHttpClient(@Qualifier("userAgent") String userAgent, HttpClientSettings settings) {
+        this.userAgent = userAgent;
+        this.dns = new CachingDns(Dns.SYSTEM, settings.getDnsCacheTtl());
+        this.client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(settings.getMaxIdleConnections(), settings.getKeepAlive(), TimeUnit.SECONDS))
+                .dns(dns)
+                .addInterceptor(BrotliInterceptor.INSTANCE)
+                .eventListener(statistics)
+                .connectTimeout(settings.getTimeout(), TimeUnit.SECONDS)
+                .readTimeout(settings.getTimeout(), TimeUnit.SECONDS)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .build();
+    }
+
+    public FetchResponse fetch(String url, Map<String, String> headers, long maxBodySize) throws IOException {
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .header("User-Agent", userAgent)
+                .header("Referer", "http://www.google.com");
+        headers.forEach(request::header);
+        return new FetchResponse(client.newCall(request.build()).execute(), maxBodySize);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "httpClient";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        long acquired = statistics.connectionsAcquired.get();
+        long opened = statistics.connectionsOpened.get();
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("requests", statistics.requests.get());
+        metrics.put("failedRequests", statistics.failedRequests.get());
+        metrics.put("connectionsAcquired", acquired);
+        metrics.put("connectionsOpened", opened);
+        metrics.put("connectionReuseRatio", acquired == 0 ? 0.0 : Math.max(0.0, 1.0 - (double) opened / acquired));
+        metrics.put("http2Requests", statistics.http2Requests.get());
+        metrics.put("idleConnections", client.connectionPool().idleConnectionCount());
+        metrics.put("pooledConnections", client.connectionPool().connectionCount());
+        metrics.put("dnsCacheHits", dns.getHits());
+        metrics.put("dnsCacheMisses", dns.getMisses());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private static final class ConnectionStatistics extends EventListener {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failedRequests = new AtomicLong();
+        private final AtomicLong connectionsAcquired = new AtomicLong();
+        private final AtomicLong connectionsOpened = new AtomicLong();
+        private final AtomicLong http2Requests = new AtomicLong();
+
+        @Override
+        public void callStart(Call call) {
+            requests.incrementAndGet();
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            failedRequests.incrementAndGet();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectionsOpened.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionsAcquired.incrementAndGet();
+            if (connection.protocol() == Protocol.HTTP_2) {
+                http2Requests.incrementAndGet();
+            }
+        }
+    }
+}
@@ -2,8 +2,8 @@ package com.github.dmitriims.posikengine.service.crawler;
 
 import com.github.dmitriims.posikengine.model.*;
 import com.github.dmitriims.posikengine.service.CommonContext;
+import com.github.dmitriims.posikengine.service.DatabaseService;
 import com.github.dmitriims.posikengine.service.LemmaUtils;
-import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
@@ -14,13 +14,19 @@ import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.RecursiveAction;
 
-public class CrawlerService extends RecursiveAction {
+public class CrawlerService implements Runnable {
 
     private volatile CommonContext commonContext;
     private volatile CrawlerContext context;
     protected String link;
+    private int depth;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private interface PageAnalysis {
+        Set<String> run() throws IOException;
+    }
 
     private final Logger log = LoggerFactory.getLogger(CrawlerService.class);
 
@@ -31,6 +37,11 @@ public class CrawlerService extends RecursiveAction {
         context.getVisitedPages().add(link);
     }
 
+    public CrawlerService(FrontierEntry entry, CrawlerContext context, CommonContext commonContext) {
+        this(entry.getUrl(), context, commonContext);
+        this.depth = entry.getDepth();
+    }
+
     public CrawlerService(CrawlerContext context, CommonContext commonContext) {
         this.commonContext = commonContext;
         this.context = context;
@@ -42,23 +53,90 @@ public class CrawlerService extends RecursiveAction {
 
 
     @Override
-    protected void compute() {
+    public void run() {
         try {
-            if (!commonContext.isIndexing() || context.getThisPool().isShutdown() || context.getNumberOfPagesToCrawl().get() <= 0) {
+            if (!shouldCrawl()) {
                 return;
             }
-            Thread.sleep(context.getDelayGenerator().ints(500, 5001).findFirst().getAsInt());
 
-            Set<String> filteredLinks = processOnePage(link);
+            addToFrontier(processOnePage(link));
 
-            if (commonContext.isIndexing() && filteredLinks.size() != 0) {
-                invokeAll(filteredLinks.stream().map(link -> new CrawlerService(link, context, commonContext)).toList());
-            }
+        } catch (IOException ioe) {
+            log.error(ioe.toString());
+        }
+    }
 
+    /*
+     * этап загрузки конвейера: тело страницы дочитывается в память, а разбор уходит анализатору.
+     * onDone вызывается ровно один раз - когда страница обработана целиком или её обработка прервалась
+     */
+    public void fetch(PageAnalyzer analyzer, Runnable onDone) {
+        boolean handedOver = false;
+        try {
+            if (!shouldCrawl()) {
+                return;
+            }
+            String path = getPathFromLink(link);
+            KnownPage knownPage = takeKnownPage(path);
+            if (isUnchangedBySitemap(knownPage, path)) {
+                handedOver = handOver(analyzer, () -> markAsUnchanged(knownPage, null, null), onDone);
+                return;
+            }
+            FetchResponse response = getResponseFromLink(link, knownPage);
+            if (response == null) {
+                return;
+            }
+            try {
+                boolean notModified = knownPage != null && response.statusCode() == HTTP_NOT_MODIFIED;
+                if (!notModified && !isAcceptableResponse(response)) {
+                    return;
+                }
+                response.buffer();
+            } finally {
+                context.addDownloadedBytes(response.bytesRead());
+                response.close();
+            }
+            handedOver = handOver(analyzer, () -> processResponse(response, knownPage), onDone);
         } catch (IOException ioe) {
             log.error(ioe.toString());
-        } catch (InterruptedException ie) {
-            log.warn(ie.toString());
+        } finally {
+            if (!handedOver) {
+                onDone.run();
+            }
+        }
+    }
+
+    /* разбор и чтение страницы из базы идут на потоке анализатора, onDone вызывается там же */
+    private boolean handOver(PageAnalyzer analyzer, PageAnalysis analysis, Runnable onDone) {
+        return analyzer.submit(() -> {
+            try {
+                addToFrontier(analysis.run());
+            } catch (IOException ioe) {
+                log.error(ioe.toString());
+            } finally {
+                onDone.run();
+            }
+        });
+    }
+
+    private KnownPage takeKnownPage(String path) {
+        return context.getKnownPages().remove(path);
+    }
+
+    /* карта сайта говорит, что страница не менялась с прошлого обхода, и загружать её не нужно */
+    private boolean isUnchangedBySitemap(KnownPage knownPage, String path) {
+        Long sitemapLastmod = context.getSitemapLastmods().get(path);
+        return knownPage != null && sitemapLastmod != null && sitemapLastmod.equals(knownPage.getSitemapLastmod());
+    }
+
+    private boolean shouldCrawl() {
+        return commonContext.isIndexing() && !context.isStopped() && context.getNumberOfPagesToCrawl().get() > 0 &&
+                !context.isOverBudget();
+    }
+
+    private void addToFrontier(Set<String> links) {
+        if (commonContext.isIndexing() && !context.isStopped() && context.getNumberOfPagesToCrawl().get() > 0) {
+            links.forEach(l -> context.addToFrontier(l, depth + 1));
         }
     }
 
@@ -68,67 +146,145 @@ public class CrawlerService extends RecursiveAction {
     }
 
     Set<String> processOnePage(String url) throws IOException {
-        Connection.Response response = getResponseFromLink(url);
-        if (response == null || !response.contentType().startsWith("text")) {
+        String path = getPathFromLink(url);
+        KnownPage knownPage = takeKnownPage(path);
+        if (isUnchangedBySitemap(knownPage, path)) {
+            return markAsUnchanged(knownPage, null, null);
+        }
+        try (FetchResponse response = getResponseFromLink(url, knownPage)) {
+            if (response == null) {
+                return new HashSet<>();
+            }
+            try {
+                return processResponse(response, knownPage);
+            } finally {
+                context.addDownloadedBytes(response.bytesRead());
+            }
+        }
+    }
+
+    Set<String> processResponse(FetchResponse response, KnownPage knownPage) throws IOException {
+        if (knownPage != null && response.statusCode() == HTTP_NOT_MODIFIED) {
+            return markAsUnchanged(knownPage, response, null);
+        }
+        if (!isAcceptableResponse(response)) {
             return new HashSet<>();
         }
-        Page currentPage = getPageFromResponse(response);
+        Document document = response.parse();
+        Page currentPage = getPageFromResponse(response, document);
 
-        Document document = new Document(currentPage.getPath());
         List<Lemma> allLemmas = new ArrayList<>();
 
         if(currentPage.getCode() >= 200 && currentPage.getCode() < 400) {
-            document = response.parse();
+            if (knownPage != null && knownPage.getCode() == currentPage.getCode() &&
+                    currentPage.getContentHash().equals(knownPage.getContentHash())) {
+                return markAsUnchanged(knownPage, response, document);
+            }
             allLemmas = LemmaUtils.getAndRankAllLemmas(document, context, commonContext.getMorphologyService());
+        } else {
+            document = new Document(currentPage.getPath());
         }
 
         currentPage.setLemmasHashcode(LemmaUtils.calculateLemmasHash(allLemmas));
 
         if (commonContext.isIndexing() && context.getNumberOfPagesToCrawl().decrementAndGet() >= 0) {
-            synchronized (commonContext.getDatabaseService()) {
-                commonContext.getDatabaseService().saveOrUpdatePage(currentPage, allLemmas, commonContext);
-            }
-            return filterLinks(
-                    document.select("a[href]")
-                            .stream()
-                            .map(e -> {
-                                String link = e.attr("abs:href");
-                                return decodeLink(link);
-                            }).toList()
-            );
+            commonContext.getPageWriter().submit(currentPage, allLemmas);
+            return filterLinks(extractLinks(document));
         }
 
         return new HashSet<>();
     }
 
-    Connection.Response getResponseFromLink(String url) {
+    /*
+     * страница не изменилась с прошлого обхода: запоминаем, что она есть на сайте, и идём по её ссылкам без разбора текста.
+     * Если об этом сказала карта сайта, страница вовсе не загружалась и ответа нет
+     */
+    Set<String> markAsUnchanged(KnownPage knownPage, FetchResponse response, Document document) {
+        if (!commonContext.isIndexing() || context.getNumberOfPagesToCrawl().decrementAndGet() < 0) {
+            return new HashSet<>();
+        }
+        DatabaseService databaseService = commonContext.getDatabaseService();
+        databaseService.markPageAsUnchanged(context.getSite().getId(), knownPage,
+                response == null ? knownPage.getEtag() : response.header("ETag"),
+                response == null ? knownPage.getLastModified() : response.header("Last-Modified"),
+                context.getSitemapLastmods().get(knownPage.getPath()));
+        if (document == null) {
+            String content = databaseService.getPageContent(knownPage.getId());
+            document = Jsoup.parse(content == null ? "" : content, link);
+        }
+        return filterLinks(extractLinks(document));
+    }
+
+    /* тело ответа ещё не прочитано: смотрим только на заголовки, чтобы не качать картинки, архивы и слишком большие страницы */
+    boolean isAcceptableResponse(FetchResponse response) {
+        String contentType = response.contentType();
+        if (contentType == null || !contentType.startsWith("text")) {
+            return false;
+        }
+        String contentLength = response.header("Content-Length");
+        if (context.getMaxBodySize() <= 0 || contentLength == null) {
+            return true;
+        }
         try {
-            return Jsoup.connect(url)
-                    .userAgent(commonContext.getUserAgent())
-                    .referrer("http://www.google.com")
-                    .timeout(60 * 1000)
-                    .ignoreContentType(true)
-                    .ignoreHttpErrors(true)
-                    .execute();
-        } catch (IOException ioe) {
+            if (Long.parseLong(contentLength.trim()) > context.getMaxBodySize()) {
+                log.info("страница " + link + " пропущена, размер " + contentLength + " байт больше допустимого");
+                return false;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        return true;
+    }
+
+    List<String> extractLinks(Document document) {
+        return document.select("a[href]")
+                .stream()
+                .map(e -> {
+                    String link = e.attr("abs:href");
+                    return decodeLink(link);
+                }).toList();
+    }
+
+    FetchResponse getResponseFromLink(String url, KnownPage knownPage) {
+        Map<String, String> headers = new HashMap<>();
+        if (knownPage != null && knownPage.getEtag() != null) {
+            headers.put("If-None-Match", knownPage.getEtag());
+        }
+        if (knownPage != null && knownPage.getLastModified() != null) {
+            headers.put("If-Modified-Since", knownPage.getLastModified());
+        }
+        try {
+            return commonContext.getHttpClient().fetch(url, headers, context.getMaxBodySize());
+        } catch (IOException | IllegalArgumentException ioe) {
             log.warn(ioe.getMessage());
             return null;
         }
     }
 
-    Page getPageFromResponse(Connection.Response response) {
+    Page getPageFromResponse(FetchResponse response, Document document) {
         int code = response.statusCode();
-        String content = response.body();
+        String content = document.outerHtml();
 
         Page page = new Page();
         page.setSite(context.getSite());
-        page.setPath(link.replaceFirst(context.getSite().getUrl(),
-                link.equals(context.getSite().getUrl()) ? "/" : ""));
+        page.setPath(getPathFromLink(link));
         page.setCode(code);
         page.setContent(content);
+        page.setEtag(response.header("ETag"));
+        page.setLastModified(response.header("Last-Modified"));
+        page.setContentHash(Fingerprints.of(content));
+        page.setSitemapLastmod(context.getSitemapLastmods().get(page.getPath()));
+        page.setGeneration(context.getGeneration());
         return page;
     }
 
+    String getPathFromLink(String url) {
+        return getPathFromLink(context.getSite().getUrl(), url);
+    }
+
+    static String getPathFromLink(String siteUrl, String url) {
+        return url.replaceFirst(siteUrl, url.equals(siteUrl) ? "/" : "");
+    }
+
     Set<String> filterLinks(List<String> links) {
         Set<String> filtered = new HashSet<>();
         for (String l : links) {
@@ -143,14 +299,7 @@ public class CrawlerService extends RecursiveAction {
     }
 
     boolean wasVisited(String link) {
-        String paired;
-        if (link.endsWith("/")) {
-            paired = link.substring(0, link.length() - 1);
-        } else {
-            paired = link.concat("/");
-        }
-
-        return context.getVisitedPages().contains(link) || context.getVisitedPages().contains(paired);
+        return context.getVisitedPages().contains(link);
     }
 
     boolean containsForbiddenComponents(String link) {
@@ -188,7 +337,7 @@ public class CrawlerService extends RecursiveAction {
         return true;
     }
 
-    String decodeLink(String link) {
+    static String decodeLink(String link) {
         link = link.replaceAll("%(?![\\da-fA-F]{2})", "%25");
         link = link.replaceAll("\\+", "%2B");
         return URLDecoder.decode(link, StandardCharsets.UTF_8);
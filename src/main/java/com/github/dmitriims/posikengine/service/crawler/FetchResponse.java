@@ -0,0 +1,124 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+public class FetchResponse implements Closeable {
+
+    private final Response response;
+    private final long maxBodySize;
+    private long bytesRead;
+    private byte[] bufferedBody;
+
+    public FetchResponse(Response response, long maxBodySize) {
+        this.response = response;
+        this.maxBodySize = maxBodySize;
+    }
+
+    public int statusCode() {
+        return response.code();
+    }
+
+    public String contentType() {
+        return response.header("Content-Type");
+    }
+
+    public String header(String name) {
+        return response.header(name);
+    }
+
+    public String url() {
+        return response.request().url().toString();
+    }
+
+    /* документ разбирается прямо из потока, тело ответа целиком в памяти не держится, если оно не было прочитано заранее */
+    public Document parse() throws IOException {
+        ResponseBody body = response.body();
+        if (body == null) {
+            return Document.createShell(url());
+        }
+        MediaType mediaType = body.contentType();
+        Charset charset = mediaType == null ? null : mediaType.charset();
+        try (InputStream in = bufferedBody != null ? new ByteArrayInputStream(bufferedBody) : limited(body.byteStream())) {
+            return Jsoup.parse(in, charset == null ? null : charset.name(), url());
+        }
+    }
+
+    /*
+     * дочитывает тело в память и освобождает соединение: рабочий загрузки не ждёт, пока страницу разберут,
+     * а разбор потом идёт уже из памяти
+     */
+    public void buffer() throws IOException {
+        if (bufferedBody == null) {
+            bufferedBody = bodyAsBytes();
+        }
+        response.close();
+    }
+
+    public byte[] bodyAsBytes() throws IOException {
+        if (bufferedBody != null) {
+            return bufferedBody;
+        }
+        ResponseBody body = response.body();
+        if (body == null) {
+            return new byte[0];
+        }
+        try (InputStream in = limited(body.byteStream());
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() {
+        response.close();
+    }
+
+    private InputStream limited(InputStream in) {
+        return new FilterInputStream(in) {
+            private long remaining = maxBodySize <= 0 ? Long.MAX_VALUE : maxBodySize;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                    bytesRead++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                    bytesRead += n;
+                }
+                return n;
+            }
+        };
+    }
+}
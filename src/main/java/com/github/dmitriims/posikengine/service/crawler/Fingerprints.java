@@ -0,0 +1,29 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+final class Fingerprints {
+
+    private Fingerprints() {
+    }
+
+    static long of(CharSequence text) {
+        return of(text, text.length());
+    }
+
+    static long of(CharSequence text, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,191 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.model.Site;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Периодически сохраняет на диск очередь ссылок, ссылки в работе, отпечатки посещённых адресов, остаток
+ * лимита страниц, поколение, в которое пишется обход, и даты из карты сайта для каждого сайта, чтобы после
+ * остановки или падения приложения обход можно было продолжить с того же места, а не начинать заново.
+ * Файл пишется во временный и затем атомарно подменяет старый.
+ */
+@Component
+public class FrontierCheckpointer {
+
+    private static final int MAGIC = 0x504B4350;
+    private static final int VERSION = 4;
+
+    private final Path directory;
+    private final List<CrawlerContext> contexts = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService saver;
+
+    private final Logger log = LoggerFactory.getLogger(FrontierCheckpointer.class);
+
+    public FrontierCheckpointer(IndexingSettings settings) {
+        this.directory = Paths.get(settings.getCheckpointDir());
+        if (settings.getCheckpointInterval() > 0) {
+            this.saver = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Frontier-checkpointer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            saver.scheduleWithFixedDelay(this::saveAll, settings.getCheckpointInterval(), settings.getCheckpointInterval(), TimeUnit.SECONDS);
+        } else {
+            this.saver = null;
+        }
+    }
+
+    public void register(CrawlerContext context) {
+        contexts.add(context);
+    }
+
+    /* остановленные контексты уже не сохраняются: их очередь к этому времени очищена планировщиком */
+    void saveAll() {
+        for (CrawlerContext context : contexts) {
+            if (context.isStopped()) {
+                contexts.remove(context);
+                continue;
+            }
+            synchronized (this) {
+                if (!context.isStopped()) {
+                    save(context);
+                }
+            }
+        }
+    }
+
+    public synchronized void save(CrawlerContext context) {
+        Path target = checkpointFile(context.getSite());
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                write(context, out);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("не удалось сохранить состояние обхода сайта " + context.getSite().getUrl() + ": " + e);
+        }
+    }
+
+    /* сначала отпечатки, потом очередь: ссылка, попавшая в очередь во время записи, уже будет среди посещённых */
+    void write(CrawlerContext context, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(context.getSite().getUrl());
+        out.writeInt(Math.max(0, context.getNumberOfPagesToCrawl().get()));
+        out.writeLong(context.getDownloadedBytes().get());
+        out.writeInt(context.getGeneration());
+        out.writeBoolean(context.isNewGeneration());
+
+        IOException[] error = new IOException[1];
+        context.getVisitedPages().forEach(fingerprint -> {
+            if (error[0] != null) {
+                return;
+            }
+            try {
+                out.writeLong(fingerprint);
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        out.writeLong(0);
+
+        for (FrontierEntry entry : context.snapshotPendingEntries()) {
+            out.writeByte(1);
+            out.writeUTF(entry.getUrl());
+            out.writeInt(entry.getDepth());
+            out.writeDouble(entry.getPriority());
+        }
+        out.writeByte(0);
+
+        for (Map.Entry<String, Long> lastmod : context.getSitemapLastmods().entrySet()) {
+            out.writeByte(1);
+            out.writeUTF(lastmod.getKey());
+            out.writeLong(lastmod.getValue());
+        }
+        out.writeByte(0);
+    }
+
+    public boolean exists(Site site) {
+        return Files.isRegularFile(checkpointFile(site));
+    }
+
+    public synchronized boolean restore(CrawlerContext context) {
+        Path file = checkpointFile(context.getSite());
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            return read(context, in);
+        } catch (IOException e) {
+            log.warn("не удалось прочитать состояние обхода сайта " + context.getSite().getUrl() + ": " + e);
+            return false;
+        }
+    }
+
+    boolean read(CrawlerContext context, DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(context.getSite().getUrl())) {
+            log.warn("сохранённое состояние обхода не подходит для сайта " + context.getSite().getUrl());
+            return false;
+        }
+        context.getNumberOfPagesToCrawl().set(in.readInt());
+        context.getDownloadedBytes().set(in.readLong());
+        context.setGeneration(in.readInt());
+        context.setNewGeneration(in.readBoolean());
+        for (long fingerprint = in.readLong(); fingerprint != 0; fingerprint = in.readLong()) {
+            context.getVisitedPages().add(fingerprint);
+        }
+        while (in.readByte() != 0) {
+            context.addToFrontier(new FrontierEntry(in.readUTF(), in.readInt(), in.readDouble()));
+        }
+        while (in.readByte() != 0) {
+            context.getSitemapLastmods().put(in.readUTF(), in.readLong());
+        }
+        return true;
+    }
+
+    public synchronized void delete(Site site) {
+        try {
+            Files.deleteIfExists(checkpointFile(site));
+        } catch (IOException e) {
+            log.warn("не удалось удалить сохранённое состояние обхода сайта " + site.getUrl() + ": " + e);
+        }
+    }
+
+    private Path checkpointFile(Site site) {
+        return directory.resolve("site-" + site.getId() + ".ckpt");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (saver != null) {
+            saver.shutdownNow();
+        }
+        saveAll();
+    }
+}
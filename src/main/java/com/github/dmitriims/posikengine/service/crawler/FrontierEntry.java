@@ -0,0 +1,19 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Comparator;
+
+@Data
+@AllArgsConstructor
+public class FrontierEntry {
+    private String url;
+    private int depth;
+    private double priority;
+
+    /* сначала мелкие уровни сайта, внутри уровня - более важные ссылки */
+    public static final Comparator<FrontierEntry> CRAWL_ORDER = Comparator.comparingInt(FrontierEntry::getDepth)
+            .thenComparing(Comparator.comparingDouble(FrontierEntry::getPriority).reversed())
+            .thenComparing(FrontierEntry::getUrl);
+}
@@ -0,0 +1,16 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class KnownPage {
+    private Long id;
+    private String path;
+    private int code;
+    private String etag;
+    private String lastModified;
+    private Long contentHash;
+    private Long sitemapLastmod;
+}
@@ -0,0 +1,10 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+/*
+ * Важность ссылки внутри одного уровня обхода: чем больше значение, тем раньше ссылка будет загружена.
+ * Чтобы поменять порядок обхода, достаточно объявить свой бин с этим интерфейсом и пометить его @Primary.
+ */
+@FunctionalInterface
+public interface LinkPriority {
+    double priority(String link, int depth);
+}
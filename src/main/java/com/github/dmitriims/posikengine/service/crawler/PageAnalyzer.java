@@ -0,0 +1,119 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.service.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Средний этап конвейера обхода: рабочие краулера только загружают страницы, а разбор и лемматизация
+ * идут здесь, на потоках по числу ядер. Очередь ограничена, поэтому когда анализ не успевает,
+ * рабочие загрузки ждут, а в памяти не копятся скачанные страницы. При нуле потоков конвейера нет
+ * и рабочие краулера разбирают страницы сами.
+ */
+@Component
+public class PageAnalyzer implements MetricsSource {
+
+    private final BlockingQueue<AnalysisTask> queue;
+    private final List<Thread> analyzers = new ArrayList<>();
+    private final int capacity;
+    private final LongAdder pagesAnalyzed = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder analysisNanos = new LongAdder();
+
+    private final Logger log = LoggerFactory.getLogger(PageAnalyzer.class);
+
+    public PageAnalyzer(IndexingSettings settings) {
+        this.capacity = Math.max(1, settings.getAnalyzerQueueCapacity());
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < settings.getAnalyzerThreads(); i++) {
+            Thread analyzer = new Thread(this::analyzeLoop, "Page-analyzer-" + i);
+            analyzer.setDaemon(true);
+            analyzers.add(analyzer);
+            analyzer.start();
+        }
+    }
+
+    public boolean isEnabled() {
+        return !analyzers.isEmpty();
+    }
+
+    /* ждёт места в очереди; false - задача не принята и вызывающий должен завершить страницу сам */
+    public boolean submit(Runnable analysis) {
+        if (!isEnabled()) {
+            return false;
+        }
+        try {
+            queue.put(new AnalysisTask(analysis, System.nanoTime()));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void analyzeLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            AnalysisTask task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long start = System.nanoTime();
+            queueWaitNanos.add(start - task.submittedAt);
+            try {
+                task.analysis.run();
+            } catch (RuntimeException e) {
+                log.error("ошибка при разборе страницы: " + e);
+            } finally {
+                analysisNanos.add(System.nanoTime() - start);
+                pagesAnalyzed.increment();
+            }
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "analyzer";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        long analyzed = pagesAnalyzed.sum();
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("threads", analyzers.size());
+        metrics.put("queueSize", queue.size());
+        metrics.put("queueCapacity", capacity);
+        metrics.put("pagesAnalyzed", analyzed);
+        metrics.put("avgQueueWaitMs", MetricsSource.averageMillis(queueWaitNanos.sum(), analyzed));
+        metrics.put("avgAnalysisMs", MetricsSource.averageMillis(analysisNanos.sum(), analyzed));
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        analyzers.forEach(Thread::interrupt);
+    }
+
+    private static final class AnalysisTask {
+        private final Runnable analysis;
+        private final long submittedAt;
+
+        private AnalysisTask(Runnable analysis, long submittedAt) {
+            this.analysis = analysis;
+            this.submittedAt = submittedAt;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.service.CommonContext;
+import com.github.dmitriims.posikengine.service.MetricsSource;
+import crawlercommons.robots.BaseRobotRules;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * Вместо того чтобы каждый рабочий спал перед загрузкой страницы, планировщик помнит для каждого хоста
+ * время, раньше которого к нему нельзя обращаться, и отдаёт ссылки из очереди сайта рабочим только тогда,
+ * когда подошло их время. К хосту одновременно идёт не больше max-fetches-per-host запросов (и не больше,
+ * чем разрешено сайту), следующий запрос ждёт задержку после начала предыдущего и после окончания каждой
+ * загрузки, поэтому медленный ответ не накладывается на следующий запрос.
+ * Рабочие общие для всех сайтов и их число не зависит от количества сайтов. Свободные рабочие в первую
+ * очередь достаются сайтам, у которых меньше всего страниц в работе относительно их веса, при этом сайт
+ * не может занять больше рабочих, чем ему разрешено.
+ * Если включён анализатор, рабочий занят страницей только пока её загружает, а разбирает её анализатор.
+ */
+@Component
+public class PolitenessScheduler implements MetricsSource {
+
+    private final CommonContext commonContext;
+    private final List<CrawlerContext> contexts = new CopyOnWriteArrayList<>();
+    private final Map<String, HostSlots> slotsPerHost = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService dispatcher;
+    private final ExecutorService workers;
+    private final int crawlerThreads;
+    private final int maxFetchesPerHost;
+    private final long tick;
+    private final PageAnalyzer analyzer;
+    private final AtomicInteger linksInWork = new AtomicInteger();
+    private final LongAdder pagesFetched = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+
+    private final Logger log = LoggerFactory.getLogger(PolitenessScheduler.class);
+
+    public PolitenessScheduler(CommonContext commonContext, IndexingSettings settings, PageAnalyzer analyzer) {
+        this.commonContext = commonContext;
+        this.analyzer = analyzer;
+        this.crawlerThreads = Math.max(1, settings.getCrawlerThreads());
+        this.maxFetchesPerHost = Math.max(1, settings.getMaxFetchesPerHost());
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Politeness-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger workerNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(crawlerThreads, r -> {
+            Thread thread = new Thread(r, "Crawler-" + workerNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.tick = Math.max(1, settings.getSchedulerTick());
+        dispatcher.scheduleWithFixedDelay(this::dispatch, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public void register(CrawlerContext context) {
+        contexts.add(context);
+    }
+
+    void dispatch() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Map.Entry<Double, CrawlerContext>> ready = new ArrayList<>();
+            for (CrawlerContext context : contexts) {
+                if (context.isStopped()) {
+                    dropPendingLinks(context);
+                    unregister(context);
+                    continue;
+                }
+                if (!commonContext.isIndexing() || context.getNumberOfPagesToCrawl().get() <= 0 || context.isOverBudget()) {
+                    if (!context.getFrontier().isEmpty()) {
+                        context.setTruncated(true);
+                    }
+                    dropPendingLinks(context);
+                    continue;
+                }
+                if (!context.getFrontier().isEmpty() && context.getLinksInWork().size() < Math.max(1, context.getMaxThreads())) {
+                    ready.add(Map.entry((double) context.getLinksInWork().size() / Math.max(1, context.getWeight()), context));
+                }
+            }
+            ready.sort(Map.Entry.comparingByKey());
+
+            for (Map.Entry<Double, CrawlerContext> candidate : ready) {
+                CrawlerContext context = candidate.getValue();
+                if (linksInWork.get() >= crawlerThreads) {
+                    break;
+                }
+                HostSlots slots = slotsPerHost.computeIfAbsent(context.getHost(), h -> new HostSlots());
+                if (!slots.tryAcquire(now, fetchLimit(context), nextDelay(context))) {
+                    continue;
+                }
+                FrontierEntry entry = context.takeToWork();
+                if (entry == null) {
+                    slots.release(0);
+                    continue;
+                }
+                release(context, entry, slots);
+            }
+        } catch (RuntimeException e) {
+            log.error("ошибка планировщика загрузок: " + e);
+        }
+    }
+
+    /*
+     * запрос не из очереди сайта (например, за картой сайта) ждёт, пока хост освободится, и занимает его так же,
+     * как загрузка страницы. null - обход остановлен или поток прерван, пока запрос ждал своей очереди
+     */
+    public <T> T requestWhenHostIsFree(CrawlerContext context, Supplier<T> request) {
+        HostSlots slots = slotsPerHost.computeIfAbsent(context.getHost(), h -> new HostSlots());
+        while (true) {
+            if (context.isStopped() || !commonContext.isIndexing()) {
+                return null;
+            }
+            if (slots.tryAcquire(System.currentTimeMillis(), fetchLimit(context), nextDelay(context))) {
+                break;
+            }
+            try {
+                Thread.sleep(tick);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        try {
+            return request.get();
+        } finally {
+            slots.release(System.currentTimeMillis() + nextDelay(context));
+        }
+    }
+
+    /* сайту с одним разрешённым рабочим не достанется второй одновременный запрос, даже если хосту он разрешён */
+    private int fetchLimit(CrawlerContext context) {
+        return Math.min(maxFetchesPerHost, Math.max(1, context.getMaxThreads()));
+    }
+
+    long nextDelay(CrawlerContext context) {
+        int min = context.getMinDelay();
+        int max = Math.max(min, context.getMaxDelay());
+        long delay = min + context.getDelayGenerator().nextInt(max - min + 1);
+        BaseRobotRules rules = context.getRobotsRules();
+        if (rules != null && rules.getCrawlDelay() != BaseRobotRules.UNSET_CRAWL_DELAY) {
+            delay = Math.max(delay, rules.getCrawlDelay());
+        }
+        return delay;
+    }
+
+    /* после окончания загрузки следующий запрос к хосту разрешается не раньше, чем пройдёт задержка */
+    private void release(CrawlerContext context, FrontierEntry entry, HostSlots slots) {
+        CrawlerService crawler = new CrawlerService(entry, context, commonContext);
+        linksInWork.incrementAndGet();
+        try {
+            workers.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    if (analyzer.isEnabled()) {
+                        crawler.fetch(analyzer, () -> finish(context, entry));
+                    } else {
+                        try {
+                            crawler.run();
+                        } finally {
+                            finish(context, entry);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.error("ошибка при обработке страницы " + crawler.link + ": " + e);
+                } finally {
+                    slots.release(System.currentTimeMillis() + nextDelay(context));
+                    fetchNanos.add(System.nanoTime() - start);
+                    pagesFetched.increment();
+                    linksInWork.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release(0);
+            linksInWork.decrementAndGet();
+            finish(context, entry);
+        }
+    }
+
+    /* страница обработана целиком; рабочий загрузки к этому времени может быть уже занят другой страницей */
+    private void finish(CrawlerContext context, FrontierEntry entry) {
+        context.getLinksInWork().remove(entry);
+        context.linkProcessed();
+    }
+
+    /* время хоста больше не нужно, если с него не обходится ни один другой сайт */
+    private void unregister(CrawlerContext context) {
+        contexts.remove(context);
+        if (contexts.stream().noneMatch(c -> c.getHost().equals(context.getHost()))) {
+            slotsPerHost.remove(context.getHost());
+        }
+    }
+
+    private void dropPendingLinks(CrawlerContext context) {
+        while (context.getFrontier().poll() != null) {
+            context.linkProcessed();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "crawler";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("threads", crawlerThreads);
+        metrics.put("pagesInWork", linksInWork.get());
+        metrics.put("sites", contexts.size());
+        metrics.put("hosts", slotsPerHost.size());
+        metrics.put("pagesInQueues", contexts.stream().mapToInt(c -> Math.max(0, c.getPendingLinks().get() - c.getLinksInWork().size())).sum());
+        long fetched = pagesFetched.sum();
+        metrics.put("pagesFetched", fetched);
+        metrics.put("avgFetchMs", MetricsSource.averageMillis(fetchNanos.sum(), fetched));
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /* сколько запросов сейчас идёт к хосту и время, раньше которого к нему нельзя начинать следующий */
+    private static class HostSlots {
+        private int fetchesInFlight;
+        private long nextFetchTime;
+
+        synchronized boolean tryAcquire(long now, int limit, long delay) {
+            if (fetchesInFlight >= limit || nextFetchTime > now) {
+                return false;
+            }
+            fetchesInFlight++;
+            nextFetchTime = now + delay;
+            return true;
+        }
+
+        synchronized void release(long nextFetchTime) {
+            fetchesInFlight--;
+            this.nextFetchTime = Math.max(this.nextFetchTime, nextFetchTime);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import org.springframework.stereotype.Component;
+
+/* разделы и страницы с коротким адресом обычно важнее, чем глубоко вложенные страницы и страницы с параметрами */
+@Component
+public class ShortPathLinkPriority implements LinkPriority {
+
+    @Override
+    public double priority(String link, int depth) {
+        int start = link.indexOf("//");
+        start = start < 0 ? 0 : start + 2;
+        int segments = 0;
+        boolean hasQuery = false;
+        for (int i = start; i < link.length(); i++) {
+            char c = link.charAt(i);
+            if (c == '?' || c == '#') {
+                hasQuery = c == '?';
+                break;
+            }
+            if (c == '/' && i + 1 < link.length()) {
+                segments++;
+            }
+        }
+        return -segments - (hasQuery ? 0.5 : 0);
+    }
+}
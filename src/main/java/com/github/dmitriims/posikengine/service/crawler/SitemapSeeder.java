@@ -0,0 +1,145 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.service.CommonContext;
+import crawlercommons.sitemaps.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+
+/*
+ * Заполняет очередь сайта адресами из карт сайта, указанных в robots.txt (или из /sitemap.xml, если там ничего нет).
+ * Вложенные индексы карт и карты в gzip разбираются парсером crawler-commons. Дата <lastmod> каждой страницы
+ * запоминается, чтобы при следующем обходе не загружать страницы, у которых она не изменилась; дат хранится не больше,
+ * чем ссылок помещается в очередь. Карты запрашиваются через планировщик, с теми же паузами между обращениями к хосту,
+ * что и страницы.
+ */
+@Component
+public class SitemapSeeder {
+
+    private static final int MAX_SITEMAP_SIZE = SiteMapParser.MAX_BYTES_ALLOWED;
+    private static final int DEFAULT_MAX_LASTMODS = 100000;
+
+    private final CrawlerHttpClient httpClient;
+    private final CommonContext commonContext;
+    private final IndexingSettings settings;
+    private final PolitenessScheduler scheduler;
+    private final SiteMapParser parser = new SiteMapParser(false);
+    private final ExecutorService reader;
+
+    private final Logger log = LoggerFactory.getLogger(SitemapSeeder.class);
+
+    public SitemapSeeder(CrawlerHttpClient httpClient, CommonContext commonContext, IndexingSettings settings,
+                         PolitenessScheduler scheduler) {
+        this.httpClient = httpClient;
+        this.commonContext = commonContext;
+        this.settings = settings;
+        this.scheduler = scheduler;
+        this.reader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Sitemap-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /* пока карты читаются, сайт не считается обойдённым: чтение учитывается как ещё одна ссылка в работе */
+    public void seed(CrawlerContext context, String topLevelUrl) {
+        if (!settings.isUseSitemaps()) {
+            return;
+        }
+        context.getPendingLinks().incrementAndGet();
+        try {
+            reader.execute(() -> {
+                try {
+                    List<String> sitemaps = context.getRobotsRules().getSitemaps();
+                    int added = walk(sitemaps.isEmpty() ? List.of(topLevelUrl + "/sitemap.xml") : sitemaps,
+                            context, url -> addToFrontier(context, url));
+                    log.info("из карты сайта " + context.getSite().getUrl() + " добавлено ссылок: " + added);
+                } catch (RuntimeException e) {
+                    log.warn("ошибка при чтении карты сайта " + context.getSite().getUrl() + ": " + e);
+                } finally {
+                    context.linkProcessed();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            context.linkProcessed();
+        }
+    }
+
+    int walk(List<String> sitemapUrls, CrawlerContext context, Predicate<SiteMapURL> consumer) {
+        Deque<String> queue = new ArrayDeque<>(sitemapUrls);
+        Set<String> seen = new HashSet<>(sitemapUrls);
+        int processed = 0;
+        int added = 0;
+        while (!queue.isEmpty() && processed < settings.getMaxSitemaps() && !context.isStopped() && commonContext.isIndexing()) {
+            String sitemapUrl = queue.poll();
+            processed++;
+            AbstractSiteMap sitemap = scheduler.requestWhenHostIsFree(context, () -> fetch(sitemapUrl));
+            if (sitemap instanceof SiteMapIndex) {
+                for (AbstractSiteMap nested : ((SiteMapIndex) sitemap).getSitemaps()) {
+                    if (seen.add(nested.getUrl().toString())) {
+                        queue.add(nested.getUrl().toString());
+                    }
+                }
+            } else if (sitemap instanceof SiteMap) {
+                for (SiteMapURL url : ((SiteMap) sitemap).getSiteMapUrls()) {
+                    if (consumer.test(url)) {
+                        added++;
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    AbstractSiteMap fetch(String sitemapUrl) {
+        try (FetchResponse response = httpClient.fetch(sitemapUrl, Collections.emptyMap(), MAX_SITEMAP_SIZE)) {
+            if (response.statusCode() != 200) {
+                return null;
+            }
+            return parser.parseSiteMap(response.contentType(), response.bodyAsBytes(), new URL(sitemapUrl));
+        } catch (IOException | UnknownFormatException | IllegalArgumentException e) {
+            log.warn("не удалось прочитать карту сайта " + sitemapUrl + ": " + e);
+            return null;
+        }
+    }
+
+    boolean addToFrontier(CrawlerContext context, SiteMapURL sitemapUrl) {
+        String url = CrawlerService.decodeLink(sitemapUrl.getUrl().toString());
+        String siteUrl = context.getSite().getUrl();
+        if (!url.startsWith(siteUrl) || context.getVisitedPages().contains(url) || !context.getRobotsRules().isAllowed(url) ||
+                commonContext.getFORBIDDEN_COMPONENTS().stream().anyMatch(url::contains)) {
+            return false;
+        }
+        /* дата нужна краулеру, как только ссылка окажется в очереди, поэтому запоминается заранее и забывается, если ссылку не взяли */
+        String path = CrawlerService.getPathFromLink(siteUrl, url);
+        Map<String, Long> lastmods = context.getSitemapLastmods();
+        boolean withLastmod = sitemapUrl.getLastModified() != null && lastmods.size() < maxLastmods(context);
+        if (withLastmod) {
+            lastmods.put(path, sitemapUrl.getLastModified().getTime());
+        }
+        boolean added = context.addToFrontier(url, 1, sitemapUrl.getPriority());
+        if (!added && withLastmod) {
+            lastmods.remove(path);
+        }
+        return added;
+    }
+
+    private int maxLastmods(CrawlerContext context) {
+        return context.getMaxFrontierSize() > 0 ? context.getMaxFrontierSize() : DEFAULT_MAX_LASTMODS;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reader.shutdownNow();
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+/*
+ * Множество посещённых адресов. Вместо самих строк хранятся их 64-битные отпечатки в массивах long с открытой
+ * адресацией, разбитых на независимые сегменты со своими блокировками. Адрес со слешем на конце и без него
+ * дают один и тот же отпечаток. Вероятность совпадения отпечатков разных адресов на сайтах любого разумного
+ * размера пренебрежимо мала. Перед таблицами может стоять фильтр Блума, который отвечает на большую часть
+ * вопросов о новых ссылках без захвата блокировок.
+ */
+public class UrlFingerprintSet {
+
+    private static final int DEFAULT_STRIPES = 16;
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+    private static final long EMPTY = 0L;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final BloomFilter bloomFilter;
+
+    public UrlFingerprintSet() {
+        this(DEFAULT_STRIPES, 0);
+    }
+
+    public UrlFingerprintSet(int stripes, int bloomFilterExpectedUrls) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, stripes - 1) << 1);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMask = stripeCount - 1;
+        this.bloomFilter = bloomFilterExpectedUrls > 0 ? new BloomFilter(bloomFilterExpectedUrls) : null;
+    }
+
+    public boolean add(String url) {
+        return add(fingerprint(url));
+    }
+
+    public boolean add(long fingerprint) {
+        if (bloomFilter != null) {
+            bloomFilter.put(fingerprint);
+        }
+        return stripeFor(fingerprint).add(fingerprint);
+    }
+
+    public boolean contains(String url) {
+        long fingerprint = fingerprint(url);
+        if (bloomFilter != null && !bloomFilter.mightContain(fingerprint)) {
+            return false;
+        }
+        return stripeFor(fingerprint).contains(fingerprint);
+    }
+
+    public void forEach(LongConsumer action) {
+        for (Stripe stripe : stripes) {
+            stripe.forEach(action);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long memoryFootprint() {
+        long bytes = bloomFilter == null ? 0 : bloomFilter.memoryFootprint();
+        for (Stripe stripe : stripes) {
+            bytes += stripe.memoryFootprint();
+        }
+        return bytes;
+    }
+
+    static long fingerprint(String url) {
+        int length = url.length();
+        if (length > 1 && url.charAt(length - 1) == '/') {
+            length--;
+        }
+        long hash = Fingerprints.of(url, length);
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private Stripe stripeFor(long fingerprint) {
+        return stripes[(int) (fingerprint >>> 32) & stripeMask];
+    }
+
+    private static final class Stripe {
+        private long[] table = new long[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        synchronized boolean add(long fingerprint) {
+            if ((size + 1) * 4L > table.length * 3L) {
+                resize();
+            }
+            if (!insert(table, fingerprint)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        synchronized boolean contains(long fingerprint) {
+            int mask = table.length - 1;
+            for (int i = (int) fingerprint & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+                if (table[i] == fingerprint) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void forEach(LongConsumer action) {
+            for (long fingerprint : table) {
+                if (fingerprint != EMPTY) {
+                    action.accept(fingerprint);
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long memoryFootprint() {
+            return (long) table.length * Long.BYTES;
+        }
+
+        private void resize() {
+            long[] resized = new long[table.length * 2];
+            for (long fingerprint : table) {
+                if (fingerprint != EMPTY) {
+                    insert(resized, fingerprint);
+                }
+            }
+            table = resized;
+        }
+
+        private static boolean insert(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            int i = (int) fingerprint & mask;
+            while (table[i] != EMPTY) {
+                if (table[i] == fingerprint) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = fingerprint;
+            return true;
+        }
+    }
+
+    private static final class BloomFilter {
+        private static final int HASH_FUNCTIONS = 7;
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+
+        BloomFilter(int expectedUrls) {
+            long words = Math.max(1, ((long) expectedUrls * 10 + 63) / 64);
+            this.bits = new AtomicLongArray((int) Math.min(words, Integer.MAX_VALUE - 8));
+            this.bitCount = (long) bits.length() * 64;
+        }
+
+        void put(long fingerprint) {
+            long second = Fingerprints.mix(fingerprint);
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                long bit = Math.floorMod(fingerprint + i * second, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                if ((bits.get(word) & mask) == 0) {
+                    bits.getAndAccumulate(word, mask, (current, m) -> current | m);
+                }
+            }
+        }
+
+        boolean mightContain(long fingerprint) {
+            long second = Fingerprints.mix(fingerprint);
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                long bit = Math.floorMod(fingerprint + i * second, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long memoryFootprint() {
+            return (long) bits.length() * Long.BYTES;
+        }
+    }
+}
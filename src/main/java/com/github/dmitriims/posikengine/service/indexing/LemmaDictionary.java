@@ -0,0 +1,88 @@
+package com.github.dmitriims.posikengine.service.indexing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * Словарь лемм сайта (лемма -> id), загружаемый из базы при первой записи страницы и живущий до конца обхода,
+ * и накопленные, но ещё не записанные в базу изменения частот лемм. Изменения частот копятся в LongAdder,
+ * поэтому писатели не ждут друг друга, а в базу они уходят одним обновлением на лемму за период.
+ */
+public class LemmaDictionary {
+
+    private static final int NOT_LOADED = -1;
+
+    private final Map<Long, SiteLemmas> sites = new ConcurrentHashMap<>();
+
+    /* словарь хранит леммы одного поколения; если запись идёт в другое поколение, словарь загружается заново */
+    public Map<String, Long> getLemmaIds(Long siteId, int generation, Supplier<Map<String, Long>> loader) {
+        SiteLemmas siteLemmas = site(siteId);
+        if (siteLemmas.generation != generation) {
+            synchronized (siteLemmas) {
+                if (siteLemmas.generation != generation) {
+                    siteLemmas.ids.clear();
+                    siteLemmas.ids.putAll(loader.get());
+                    siteLemmas.generation = generation;
+                }
+            }
+        }
+        return siteLemmas.ids;
+    }
+
+    public void addLemmaId(Long siteId, int generation, String lemma, Long id) {
+        SiteLemmas siteLemmas = site(siteId);
+        if (siteLemmas.generation == generation) {
+            siteLemmas.ids.put(lemma, id);
+        }
+    }
+
+    public void addFrequency(Long siteId, Long lemmaId, long delta) {
+        if (delta != 0) {
+            site(siteId).frequencyDeltas.computeIfAbsent(lemmaId, id -> new LongAdder()).add(delta);
+        }
+    }
+
+    /* забирает накопленные изменения; то, что добавится во время сбора, останется до следующего раза */
+    public Map<Long, Long> drainFrequencyDeltas(Long siteId) {
+        Map<Long, Long> drained = new HashMap<>();
+        SiteLemmas siteLemmas = sites.get(siteId);
+        if (siteLemmas == null) {
+            return drained;
+        }
+        for (Map.Entry<Long, LongAdder> delta : siteLemmas.frequencyDeltas.entrySet()) {
+            long value = delta.getValue().sum();
+            if (value != 0) {
+                delta.getValue().add(-value);
+                drained.put(delta.getKey(), value);
+            }
+        }
+        return drained;
+    }
+
+    /* добавляет изменения частот записанных страниц или возвращает забранные, если их не удалось сохранить */
+    public void addFrequencyDeltas(Long siteId, Map<Long, Long> deltas) {
+        deltas.forEach((lemmaId, delta) -> addFrequency(siteId, lemmaId, delta));
+    }
+
+    public Set<Long> getSiteIds() {
+        return sites.keySet();
+    }
+
+    public void remove(Long siteId) {
+        sites.remove(siteId);
+    }
+
+    private SiteLemmas site(Long siteId) {
+        return sites.computeIfAbsent(siteId, id -> new SiteLemmas());
+    }
+
+    private static final class SiteLemmas {
+        private final Map<String, Long> ids = new ConcurrentHashMap<>();
+        private final Map<Long, LongAdder> frequencyDeltas = new ConcurrentHashMap<>();
+        private volatile int generation = NOT_LOADED;
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.dmitriims.posikengine.service.indexing;
+
+import com.github.dmitriims.posikengine.model.Lemma;
+import com.github.dmitriims.posikengine.model.Page;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class PageWriteTask {
+    private Page page;
+    private List<Lemma> lemmas;
+}
@@ -0,0 +1,162 @@
+package com.github.dmitriims.posikengine.service.indexing;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.model.Lemma;
+import com.github.dmitriims.posikengine.model.Page;
+import com.github.dmitriims.posikengine.service.DatabaseService;
+import com.github.dmitriims.posikengine.service.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Рабочие краулера не пишут в базу сами, а складывают страницы в очередь. Писатели забирают из очереди
+ * сразу пачку страниц и сохраняют её одной транзакцией. Очередь выбирается по сайту, поэтому леммы
+ * одного сайта всегда пишет один и тот же поток и писатели не мешают друг другу.
+ */
+@Component
+public class PageWriter implements MetricsSource {
+
+    private final DatabaseService databaseService;
+    private final int batchSize;
+    private final long lemmaFlushInterval;
+    private final List<BlockingQueue<PageWriteTask>> queues = new ArrayList<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private final Map<Long, AtomicInteger> pendingPagesPerSite = new ConcurrentHashMap<>();
+    private final int queueCapacity;
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LongAdder batchesWritten = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+
+    private final Logger log = LoggerFactory.getLogger(PageWriter.class);
+
+    public PageWriter(DatabaseService databaseService, IndexingSettings settings) {
+        this.databaseService = databaseService;
+        this.batchSize = Math.max(1, settings.getWriterBatchSize());
+        this.lemmaFlushInterval = TimeUnit.SECONDS.toMillis(settings.getLemmaFlushInterval());
+        this.queueCapacity = Math.max(1, settings.getWriterQueueCapacity());
+
+        for (int i = 0; i < Math.max(1, settings.getWriterThreads()); i++) {
+            BlockingQueue<PageWriteTask> queue = new ArrayBlockingQueue<>(queueCapacity);
+            Thread writer = new Thread(() -> writeLoop(queue), "Page-writer-" + i);
+            writer.setDaemon(true);
+            queues.add(queue);
+            writers.add(writer);
+            writer.start();
+        }
+    }
+
+    public void submit(Page page, List<Lemma> lemmas) {
+        Long siteId = page.getSite().getId();
+        AtomicInteger pending = pendingPagesPerSite.computeIfAbsent(siteId, id -> new AtomicInteger());
+        pending.incrementAndGet();
+        try {
+            queues.get(Math.floorMod(siteId.hashCode(), queues.size())).put(new PageWriteTask(page, lemmas));
+        } catch (InterruptedException e) {
+            pending.decrementAndGet();
+            Thread.currentThread().interrupt();
+            log.warn("страница " + page.getPath() + " не поставлена в очередь на запись, рабочий прерван");
+        }
+    }
+
+    public boolean hasPendingPages(Long siteId) {
+        AtomicInteger pending = pendingPagesPerSite.get(siteId);
+        return pending != null && pending.get() > 0;
+    }
+
+    private void writeLoop(BlockingQueue<PageWriteTask> queue) {
+        List<PageWriteTask> batch = new ArrayList<>(batchSize);
+        long nextLemmaFlush = System.currentTimeMillis() + lemmaFlushInterval;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                writeBatch(batch);
+                if (lemmaFlushInterval > 0 && System.currentTimeMillis() >= nextLemmaFlush) {
+                    flushLemmaFrequencies(batch);
+                    nextLemmaFlush = System.currentTimeMillis() + lemmaFlushInterval;
+                }
+            } finally {
+                for (PageWriteTask task : batch) {
+                    pendingPagesPerSite.get(task.getPage().getSite().getId()).decrementAndGet();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PageWriteTask> batch) {
+        long start = System.nanoTime();
+        try {
+            databaseService.saveOrUpdatePages(batch);
+        } catch (RuntimeException e) {
+            log.warn("не удалось сохранить пачку из " + batch.size() + " страниц, сохраняю по одной: " + e);
+            for (PageWriteTask task : batch) {
+                try {
+                    databaseService.saveOrUpdatePages(Collections.singletonList(task));
+                } catch (RuntimeException re) {
+                    log.error("не удалось сохранить страницу " + task.getPage().getPath() + ": " + re);
+                }
+            }
+        } finally {
+            writeNanos.add(System.nanoTime() - start);
+            batchesWritten.increment();
+            pagesWritten.add(batch.size());
+        }
+    }
+
+    /* пока страницы пачки числятся в очереди, монитор не закончит обход их сайтов и не сбросит частоты одновременно с нами */
+    private void flushLemmaFrequencies(List<PageWriteTask> batch) {
+        Set<Long> siteIds = new HashSet<>();
+        batch.forEach(task -> siteIds.add(task.getPage().getSite().getId()));
+        try {
+            databaseService.flushLemmaFrequencies(siteIds);
+        } catch (RuntimeException e) {
+            log.warn("не удалось записать частоты лемм, попробую позже: " + e);
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "writer";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        long batches = batchesWritten.sum();
+        long pages = pagesWritten.sum();
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("threads", writers.size());
+        metrics.put("queueSize", queues.stream().mapToInt(BlockingQueue::size).sum());
+        metrics.put("queueCapacity", queueCapacity * queues.size());
+        metrics.put("pagesWritten", pages);
+        metrics.put("batchesWritten", batches);
+        metrics.put("avgBatchWriteMs", MetricsSource.averageMillis(writeNanos.sum(), batches));
+        metrics.put("avgPageWriteMs", MetricsSource.averageMillis(writeNanos.sum(), pages));
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writers.forEach(Thread::interrupt);
+        try {
+            databaseService.flushAllLemmaFrequencies();
+        } catch (RuntimeException e) {
+            log.warn("не удалось записать частоты лемм при остановке: " + e);
+        }
+    }
+}
@@ -1,37 +1,30 @@
 package com.github.dmitriims.posikengine.service.indexing;
 
+import com.github.dmitriims.posikengine.service.crawler.CrawlerHttpClient;
+import com.github.dmitriims.posikengine.service.crawler.FetchResponse;
 import org.springframework.stereotype.Component;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 
 @Component
 public class RobotsTxtFactory {
-    public byte[] getRobotsTxt(String site) throws IOException {
-        byte[] robotsInBytes;
-        URL robots = new URL(site + "/robots.txt");
 
-        HttpURLConnection urlConnection = (HttpURLConnection) robots.openConnection();
-        urlConnection.setRequestMethod("HEAD");
-        if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-            return "User-agent: *\nAllow:".getBytes(StandardCharsets.UTF_8);
-        }
+    private static final int MAX_ROBOTS_TXT_SIZE = 512 * 1024;
+
+    private final CrawlerHttpClient httpClient;
 
-        try (InputStream inStream = robots.openStream();
-             ByteArrayOutputStream outStream = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[4096];
-            int n = 0;
-            while ((n = inStream.read(buffer)) > 0) {
-                outStream.write(buffer, 0, n);
+    public RobotsTxtFactory(CrawlerHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    public byte[] getRobotsTxt(String site) throws IOException {
+        try (FetchResponse response = httpClient.fetch(site + "/robots.txt", Collections.emptyMap(), MAX_ROBOTS_TXT_SIZE)) {
+            if (response.statusCode() != 200) {
+                return "User-agent: *\nAllow:".getBytes(StandardCharsets.UTF_8);
             }
-            robotsInBytes = outStream.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            return response.bodyAsBytes();
         }
-        return robotsInBytes;
     }
 }
@@ -0,0 +1,386 @@
+package com.github.dmitriims.posikengine.service.search;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.SearchSettings;
+import com.github.dmitriims.posikengine.model.Lemma;
+import com.github.dmitriims.posikengine.model.Page;
+import com.github.dmitriims.posikengine.service.MetricsSource;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Обратный индекс активного поколения сайтов в памяти: лемма -> сжатый список страниц с рангами (PostingList)
+ * и множество страниц сайта. Он загружается из таблицы index при старте, а дальше обновляется после фиксации
+ * каждой записи страниц, поэтому поиск пересекает списки и выбирает лучшие страницы без обращения к базе.
+ * По нему же считается, на скольких страницах сайта встречается лемма, чтобы отбросить слишком частые леммы запроса.
+ * Пока индекс не загружен или отключён в настройках, поиск идёт через базу.
+ */
+@Component
+public class InvertedIndex implements MetricsSource {
+
+    private static final Comparator<ScoredPage> BEST_FIRST = Comparator.comparingDouble(ScoredPage::getRelevance).reversed()
+            .thenComparing(ScoredPage::getPageId);
+    private static final int MIN_CHANGES_TO_COMPACT_SITE = 4096;
+
+    private final boolean enabled;
+    private final Map<Long, SiteIndex> sites = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicInteger activeLoaders = new AtomicInteger();
+    private volatile boolean ready;
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAdder frequencyRecounts = new LongAdder();
+
+    public InvertedIndex(SearchSettings settings) {
+        this.enabled = settings.isInMemoryIndex();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /* full - загрузка всех сайтов при старте, после неё индекс готов к поиску */
+    public Loader newLoader(boolean full) {
+        return new Loader(full);
+    }
+
+    /* страницы поколения, которое ещё не стало активным, сюда не попадают: при переключении сайт загружается заново */
+    public void putPage(Page page, Collection<Lemma> lemmas) {
+        if (!enabled || page.getGeneration() != page.getSite().getGeneration()) {
+            return;
+        }
+        SiteIndex site = sites.computeIfAbsent(page.getSite().getId(), id -> new SiteIndex(page.getGeneration()));
+        if (site.generation != page.getGeneration()) {
+            return;
+        }
+        site.lock.writeLock().lock();
+        try {
+            long seq = changes.incrementAndGet();
+            /* у новой страницы нет старых записей, поэтому частоты лемм только растут и пересчитывать их не нужно */
+            boolean newPage = site.pages.add(page.getId());
+            if (!newPage) {
+                site.statsEpoch++;
+            }
+            site.changes.put(page.getId(), seq);
+            for (Lemma lemma : lemmas) {
+                PostingList list = site.postings.computeIfAbsent(lemma.getLemma(), l -> new PostingList());
+                list.put(page.getId(), lemma.getRank(), seq);
+                if (newPage) {
+                    list.addToDocumentFrequency(site.statsEpoch);
+                }
+                if (list.needsCompaction()) {
+                    list.compact(site::lastChange, changes.get());
+                }
+            }
+            compactIfTooManyChanges(site);
+        } finally {
+            site.lock.writeLock().unlock();
+        }
+    }
+
+    public void removePages(Long siteId, Collection<Long> pageIds) {
+        SiteIndex site = sites.get(siteId);
+        if (site == null) {
+            return;
+        }
+        site.lock.writeLock().lock();
+        try {
+            long seq = changes.incrementAndGet();
+            site.statsEpoch++;
+            for (Long pageId : pageIds) {
+                site.changes.put(pageId, seq);
+                site.pages.remove(pageId);
+            }
+            compactIfTooManyChanges(site);
+        } finally {
+            site.lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * пометки изменений нужны, пока в каких-то списках лежат устаревшие записи. Когда пометок много, все списки
+     * сайта пересобираются и пометки забываются. Во время загрузки этого делать нельзя: загружаемые списки
+     * собраны раньше и без пометок не отличат устаревшие записи
+     */
+    private void compactIfTooManyChanges(SiteIndex site) {
+        if (site.changes.size() < MIN_CHANGES_TO_COMPACT_SITE || site.changes.size() < site.pages.size() / 4 ||
+                activeLoaders.get() > 0) {
+            return;
+        }
+        long seq = changes.get();
+        site.postings.values().forEach(list -> list.compact(site::lastChange, seq));
+        site.postings.values().removeIf(list -> list.approximateSize() == 0);
+        site.changes.clear();
+    }
+
+    /*
+     * леммы, которые встречаются меньше чем на доле threshold страниц выбранных сайтов, от редких к частым.
+     * Леммы, которых на этих сайтах нет вовсе, тоже отбрасываются
+     */
+    public List<String> filterPopularLemmasOut(Collection<Long> siteIds, List<String> lemmas, double threshold) {
+        Map<String, Long> frequencies = new HashMap<>();
+        long pages = 0;
+        for (Long siteId : siteIds) {
+            SiteIndex site = sites.get(siteId);
+            if (site == null) {
+                continue;
+            }
+            site.lock.readLock().lock();
+            try {
+                pages += site.pages.size();
+                for (String lemma : lemmas) {
+                    PostingList list = site.postings.get(lemma);
+                    if (list == null) {
+                        continue;
+                    }
+                    if (!list.isDocumentFrequencyCounted(site.statsEpoch)) {
+                        frequencyRecounts.increment();
+                    }
+                    int frequency = list.documentFrequency(site::lastChange, site.statsEpoch);
+                    if (frequency > 0) {
+                        frequencies.merge(lemma, (long) frequency, Long::sum);
+                    }
+                }
+            } finally {
+                site.lock.readLock().unlock();
+            }
+        }
+        double maxFrequency = pages * threshold;
+        return lemmas.stream()
+                .distinct()
+                .filter(lemma -> frequencies.containsKey(lemma) && frequencies.get(lemma) < maxFrequency)
+                .sorted(Comparator.comparingLong(frequencies::get))
+                .toList();
+    }
+
+    /* страницы, на которых есть все леммы, по убыванию суммы рангов; при равной сумме раньше идёт страница с меньшим id */
+    public List<ScoredPage> findPages(Collection<Long> siteIds, Collection<String> lemmas, int limit, int offset) {
+        long start = System.nanoTime();
+        int wanted = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, offset) + Math.max(0, limit));
+        PriorityQueue<ScoredPage> top = new PriorityQueue<>(BEST_FIRST.reversed());
+        if (wanted > 0 && !lemmas.isEmpty()) {
+            for (Long siteId : siteIds) {
+                SiteIndex site = sites.get(siteId);
+                if (site == null) {
+                    continue;
+                }
+                site.lock.readLock().lock();
+                try {
+                    collect(siteId, site, lemmas, wanted, top);
+                } finally {
+                    site.lock.readLock().unlock();
+                }
+            }
+        }
+        List<ScoredPage> result = new ArrayList<>(top);
+        result.sort(BEST_FIRST);
+        searches.increment();
+        searchNanos.add(System.nanoTime() - start);
+        return new ArrayList<>(result.subList(Math.min(Math.max(0, offset), result.size()), result.size()));
+    }
+
+    /* пересечение «чехардой»: самый короткий список предлагает страницу, остальные подтягиваются к ней или обгоняют её */
+    private void collect(Long siteId, SiteIndex site, Collection<String> lemmas, int wanted, PriorityQueue<ScoredPage> top) {
+        List<PostingList> lists = new ArrayList<>();
+        for (String lemma : lemmas) {
+            PostingList list = site.postings.get(lemma);
+            if (list == null) {
+                return;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(PostingList::approximateSize));
+        PostingList.Cursor[] cursors = new PostingList.Cursor[lists.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = lists.get(i).cursor(site::lastChange);
+        }
+
+        long candidate = cursors[0].id();
+        while (candidate != PostingList.END) {
+            double relevance = cursors[0].rank();
+            boolean matched = true;
+            for (int i = 1; i < cursors.length; i++) {
+                cursors[i].advanceTo(candidate);
+                if (cursors[i].id() != candidate) {
+                    matched = false;
+                    candidate = cursors[i].id();
+                    break;
+                }
+                relevance += cursors[i].rank();
+            }
+            if (matched) {
+                offer(top, new ScoredPage(siteId, candidate, relevance), wanted);
+                cursors[0].next();
+            } else {
+                cursors[0].advanceTo(candidate);
+            }
+            candidate = cursors[0].id();
+        }
+    }
+
+    private void offer(PriorityQueue<ScoredPage> top, ScoredPage page, int wanted) {
+        if (top.size() < wanted) {
+            top.add(page);
+        } else if (BEST_FIRST.compare(page, top.peek()) < 0) {
+            top.poll();
+            top.add(page);
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "searchIndex";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        long pages = 0;
+        long lemmas = 0;
+        long postings = 0;
+        long bytes = 0;
+        for (SiteIndex site : sites.values()) {
+            site.lock.readLock().lock();
+            try {
+                pages += site.pages.size();
+                lemmas += site.postings.size();
+                for (PostingList list : site.postings.values()) {
+                    postings += list.approximateSize();
+                    bytes += list.compressedBytes();
+                }
+            } finally {
+                site.lock.readLock().unlock();
+            }
+        }
+        long searchCount = searches.sum();
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("ready", isReady() ? 1 : 0);
+        metrics.put("sites", sites.size());
+        metrics.put("pages", pages);
+        metrics.put("lemmas", lemmas);
+        metrics.put("postings", postings);
+        metrics.put("postingBytes", bytes);
+        metrics.put("searches", searchCount);
+        metrics.put("avgSearchMs", MetricsSource.averageMillis(searchNanos.sum(), searchCount));
+        metrics.put("frequencyRecounts", frequencyRecounts.sum());
+        return metrics;
+    }
+
+    private static final class SiteIndex {
+        private final int generation;
+        private final Map<String, PostingList> postings = new HashMap<>();
+        private final PageIdSet pages = new PageIdSet();
+        /* номер последнего изменения страницы: записи, появившиеся раньше, устарели */
+        private final Map<Long, Long> changes = new HashMap<>();
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        /* меняется, когда частоты лемм могли уменьшиться: после этого они пересчитываются при первом обращении */
+        private long statsEpoch;
+
+        private SiteIndex(int generation) {
+            this.generation = generation;
+        }
+
+        private long lastChange(long pageId) {
+            Long change = changes.get(pageId);
+            return change == null ? 0 : change;
+        }
+    }
+
+    /*
+     * Загрузка из базы: сайты регистрируются сразу, чтобы записи, сделанные во время загрузки, не потерялись,
+     * а строки индекса должны идти по возрастанию id страниц. Всё, что загружено, считается состоянием на момент
+     * создания загрузчика, поэтому изменения, сделанные после, перекрывают загруженное
+     */
+    public final class Loader {
+        private final boolean full;
+        private final long seq;
+        private final Map<Long, LoadedSite> loaded = new HashMap<>();
+        private boolean installed;
+
+        private Loader(boolean full) {
+            this.full = full;
+            activeLoaders.incrementAndGet();
+            this.seq = changes.incrementAndGet();
+        }
+
+        public void addSite(Long siteId, int generation) {
+            loaded.put(siteId, new LoadedSite(generation));
+            sites.computeIfAbsent(siteId, id -> new SiteIndex(generation));
+        }
+
+        public void addPage(Long siteId, Long pageId) {
+            loaded.get(siteId).pages.add(pageId);
+        }
+
+        public void addPosting(Long siteId, Long pageId, String lemma, double rank) {
+            loaded.get(siteId).postings.computeIfAbsent(lemma, l -> new PostingList.Builder()).add(pageId, rank);
+        }
+
+        /* сайт, сменивший поколение, заменяется целиком, иначе загруженное сливается с тем, что записано во время загрузки */
+        public void install() {
+            try {
+                for (Map.Entry<Long, LoadedSite> entry : loaded.entrySet()) {
+                    LoadedSite site = entry.getValue();
+                    sites.compute(entry.getKey(), (id, existing) -> {
+                        SiteIndex target = existing == null || existing.generation != site.generation ?
+                                new SiteIndex(site.generation) : existing;
+                        target.lock.writeLock().lock();
+                        try {
+                            install(site, target);
+                        } finally {
+                            target.lock.writeLock().unlock();
+                        }
+                        return target;
+                    });
+                }
+                if (full) {
+                    ready = true;
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /* загрузка не удалась: индекс остаётся как был */
+        public void close() {
+            if (!installed) {
+                installed = true;
+                activeLoaders.decrementAndGet();
+            }
+        }
+
+        private void install(LoadedSite site, SiteIndex target) {
+            target.statsEpoch++;
+            for (Map.Entry<String, PostingList> list : target.postings.entrySet()) {
+                if (!site.postings.containsKey(list.getKey())) {
+                    list.getValue().replaceBase(new PostingList.Builder(), seq);
+                }
+            }
+            site.postings.forEach((lemma, builder) ->
+                    target.postings.computeIfAbsent(lemma, l -> new PostingList()).replaceBase(builder, seq));
+            site.pages.forEach(page -> {
+                if (target.lastChange(page) <= seq) {
+                    target.pages.add(page);
+                }
+            });
+        }
+    }
+
+    private static final class LoadedSite {
+        private final int generation;
+        private final Map<String, PostingList.Builder> postings = new HashMap<>();
+        private final PageIdSet pages = new PageIdSet();
+
+        private LoadedSite(int generation) {
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.dmitriims.posikengine.service.search;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/* номера страниц сайта: обычные лежат в битовой карте, а номера, которые в неё не помещаются, - в отдельном множестве */
+final class PageIdSet {
+
+    private final BitSet bits = new BitSet();
+    private final Set<Long> large = new HashSet<>();
+
+    /* true - страницы в множестве ещё не было */
+    boolean add(long pageId) {
+        if (fitsBits(pageId)) {
+            boolean added = !bits.get((int) pageId);
+            bits.set((int) pageId);
+            return added;
+        }
+        return large.add(pageId);
+    }
+
+    void remove(long pageId) {
+        if (fitsBits(pageId)) {
+            bits.clear((int) pageId);
+        } else {
+            large.remove(pageId);
+        }
+    }
+
+    boolean contains(long pageId) {
+        return fitsBits(pageId) ? bits.get((int) pageId) : large.contains(pageId);
+    }
+
+    long size() {
+        return bits.cardinality() + large.size();
+    }
+
+    void forEach(LongConsumer action) {
+        for (int page = bits.nextSetBit(0); page >= 0; page = bits.nextSetBit(page + 1)) {
+            action.accept(page);
+        }
+        large.forEach(action::accept);
+    }
+
+    private static boolean fitsBits(long pageId) {
+        return pageId >= 0 && pageId < Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,277 @@
+package com.github.dmitriims.posikengine.service.search;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongUnaryOperator;
+
+/*
+ * Страницы одной леммы сайта. Основная часть неизменяемая: номера страниц по возрастанию записаны разностями
+ * переменной длины, ранги лежат рядом, а для каждого блока из BLOCK страниц запомнены первый номер и смещение,
+ * чтобы при пересечении списков перепрыгивать блоки, не распаковывая их. Страницы, записанные после сборки
+ * основной части, лежат в небольшом дереве и время от времени вливаются в неё. Ранги хранятся в double, как и в базе,
+ * чтобы релевантность и порядок страниц с равной релевантностью не отличались от поиска через базу.
+ *
+ * Запись в основной части или в дереве действительна, если страница не переписывалась и не удалялась после того,
+ * как запись появилась: у каждой записи есть номер изменения, у сайта - номер последнего изменения каждой страницы.
+ */
+final class PostingList {
+
+    static final int BLOCK = 128;
+    static final long END = Long.MAX_VALUE;
+
+    private byte[] ids = new byte[0];
+    private double[] ranks = new double[0];
+    private long[] blockFirstIds = new long[0];
+    private int[] blockOffsets = new int[0];
+    private int size;
+    private long baseSeq;
+    private final TreeMap<Long, Pending> pending = new TreeMap<>();
+    private volatile Counted documentFrequency = new Counted(-1, 0);
+
+    void put(long pageId, double rank, long seq) {
+        pending.put(pageId, new Pending(rank, seq));
+    }
+
+    boolean needsCompaction() {
+        return pending.size() > Math.max(64, size / 8);
+    }
+
+    /* оставляет только действительные записи, после этого пометки страниц старше seq этому списку больше не нужны */
+    void compact(LongUnaryOperator lastChange, long seq) {
+        Builder builder = new Builder();
+        Cursor cursor = cursor(lastChange);
+        while (cursor.id() != END) {
+            builder.add(cursor.id(), cursor.rank());
+            cursor.next();
+        }
+        replaceBase(builder, seq);
+    }
+
+    void replaceBase(Builder builder, long seq) {
+        builder.finishTo(this);
+        baseSeq = seq;
+        pending.values().removeIf(p -> p.seq <= seq);
+    }
+
+    int approximateSize() {
+        return size + pending.size();
+    }
+
+    long compressedBytes() {
+        return ids.length + 8L * ranks.length + 12L * blockFirstIds.length + 40L * pending.size();
+    }
+
+    Cursor cursor(LongUnaryOperator lastChange) {
+        return new Cursor(lastChange);
+    }
+
+    /*
+     * число страниц с леммой. Оно запоминается вместе с номером статистики сайта: пока номер не изменился,
+     * число поддерживается прибавлением новых страниц, а после изменения пересчитывается по действительным записям
+     */
+    int documentFrequency(LongUnaryOperator lastChange, long epoch) {
+        Counted counted = documentFrequency;
+        if (counted.epoch == epoch) {
+            return counted.value;
+        }
+        int value = 0;
+        for (Cursor cursor = cursor(lastChange); cursor.id() != END; cursor.next()) {
+            value++;
+        }
+        documentFrequency = new Counted(epoch, value);
+        return value;
+    }
+
+    boolean isDocumentFrequencyCounted(long epoch) {
+        return documentFrequency.epoch == epoch;
+    }
+
+    void addToDocumentFrequency(long epoch) {
+        Counted counted = documentFrequency;
+        if (counted.epoch == epoch) {
+            documentFrequency = new Counted(epoch, counted.value + 1);
+        }
+    }
+
+    private static final class Counted {
+        private final long epoch;
+        private final int value;
+
+        private Counted(long epoch, int value) {
+            this.epoch = epoch;
+            this.value = value;
+        }
+    }
+
+    private static final class Pending {
+        private final double rank;
+        private final long seq;
+
+        private Pending(double rank, long seq) {
+            this.rank = rank;
+            this.seq = seq;
+        }
+    }
+
+    /* идёт по действительным записям в порядке номеров страниц, lastChange - номер последнего изменения страницы или 0 */
+    final class Cursor {
+        private final LongUnaryOperator lastChange;
+        private int baseIndex = -1;
+        private int baseOffset;
+        private long baseId;
+        private Map.Entry<Long, Pending> pendingEntry;
+        private long id;
+        private double rank;
+
+        private Cursor(LongUnaryOperator lastChange) {
+            this.lastChange = lastChange;
+            nextBase();
+            skipStaleBase();
+            pendingEntry = validPending(pending.ceilingEntry(0L));
+            current();
+        }
+
+        long id() {
+            return id;
+        }
+
+        double rank() {
+            return rank;
+        }
+
+        void next() {
+            if (id != END) {
+                advanceTo(id + 1);
+            }
+        }
+
+        void advanceTo(long target) {
+            if (target <= id) {
+                return;
+            }
+            if (baseId < target) {
+                seekBlock(target);
+                while (baseId < target) {
+                    nextBase();
+                }
+                skipStaleBase();
+            }
+            if (pendingEntry != null && pendingEntry.getKey() < target) {
+                pendingEntry = validPending(pending.ceilingEntry(target));
+            }
+            current();
+        }
+
+        private void current() {
+            long pendingId = pendingEntry == null ? END : pendingEntry.getKey();
+            if (pendingId <= baseId) {
+                id = pendingId;
+                rank = pendingEntry == null ? 0 : pendingEntry.getValue().rank;
+            } else {
+                id = baseId;
+                rank = ranks[baseIndex];
+            }
+        }
+
+        private void seekBlock(long target) {
+            int block = Arrays.binarySearch(blockFirstIds, target);
+            if (block < 0) {
+                block = -block - 2;
+            }
+            if (block > 0 && block * BLOCK > baseIndex) {
+                baseIndex = block * BLOCK;
+                baseId = blockFirstIds[block];
+                baseOffset = blockOffsets[block];
+            }
+        }
+
+        private void nextBase() {
+            if (baseIndex + 1 >= size) {
+                baseIndex = size;
+                baseId = END;
+                return;
+            }
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = ids[baseOffset++];
+                delta |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            baseId = baseIndex < 0 ? delta : baseId + delta;
+            baseIndex++;
+        }
+
+        private void skipStaleBase() {
+            while (baseId != END && lastChange.applyAsLong(baseId) > baseSeq) {
+                nextBase();
+            }
+        }
+
+        private Map.Entry<Long, Pending> validPending(Map.Entry<Long, Pending> entry) {
+            while (entry != null && entry.getValue().seq < lastChange.applyAsLong(entry.getKey())) {
+                entry = pending.higherEntry(entry.getKey());
+            }
+            return entry;
+        }
+    }
+
+    /* собирает основную часть из страниц, добавляемых по возрастанию номеров */
+    static final class Builder {
+        private byte[] ids = new byte[64];
+        private int length;
+        private double[] ranks = new double[16];
+        private long[] blockFirstIds = new long[1];
+        private int[] blockOffsets = new int[1];
+        private int size;
+        private long lastId;
+
+        void add(long pageId, double rank) {
+            if (size > 0 && pageId <= lastId) {
+                throw new IllegalArgumentException("страницы должны добавляться по возрастанию номеров: " + pageId + " после " + lastId);
+            }
+            long delta = size == 0 ? pageId : pageId - lastId;
+            ensureCapacity(10);
+            while ((delta & ~0x7fL) != 0) {
+                ids[length++] = (byte) ((delta & 0x7f) | 0x80);
+                delta >>>= 7;
+            }
+            ids[length++] = (byte) delta;
+            if (size % BLOCK == 0) {
+                int block = size / BLOCK;
+                if (block == blockFirstIds.length) {
+                    blockFirstIds = Arrays.copyOf(blockFirstIds, block * 2);
+                    blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+                }
+                blockFirstIds[block] = pageId;
+                blockOffsets[block] = length;
+            }
+            if (size == ranks.length) {
+                ranks = Arrays.copyOf(ranks, size * 2);
+            }
+            ranks[size++] = rank;
+            lastId = pageId;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, length + extra));
+            }
+        }
+
+        private void finishTo(PostingList list) {
+            int blocks = (size + BLOCK - 1) / BLOCK;
+            list.ids = Arrays.copyOf(ids, length);
+            list.ranks = Arrays.copyOf(ranks, size);
+            list.blockFirstIds = Arrays.copyOf(blockFirstIds, blocks);
+            list.blockOffsets = Arrays.copyOf(blockOffsets, blocks);
+            list.size = size;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.dmitriims.posikengine.service.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class ScoredPage {
+    private Long siteId;
+    private Long pageId;
+    private double relevance;
+}
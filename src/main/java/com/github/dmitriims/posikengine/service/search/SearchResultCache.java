@@ -0,0 +1,135 @@
+package com.github.dmitriims.posikengine.service.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.dmitriims.posikengine.dto.FoundPage;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.SearchSettings;
+import com.github.dmitriims.posikengine.service.MetricsSource;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Готовые результаты поиска: ключ - слова запроса в нижнем регистре, сайты и окно выдачи (offset, limit).
+ * Разные формы одного слова дают разные ключи: от слов запроса зависят сниппеты.
+ * У каждого сайта есть номер версии индекса, который увеличивается при каждой записи страниц сайта и в конце
+ * индексации. Результат запоминает версии своих сайтов на момент начала поиска и перестаёт действовать,
+ * как только хотя бы одна из них изменилась.
+ */
+@Component
+public class SearchResultCache implements MetricsSource {
+
+    private final int size;
+    private final Cache<Key, Entry> results;
+    private final Map<Long, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleResults = new LongAdder();
+
+    public SearchResultCache(SearchSettings settings) {
+        this.size = Math.max(0, settings.getResultCacheSize());
+        this.results = size == 0 ? null : Caffeine.newBuilder()
+                .maximumSize(size)
+                .recordStats()
+                .build();
+    }
+
+    public Key key(List<String> words, Collection<Long> siteIds, int offset, int limit) {
+        List<Long> sortedSiteIds = siteIds.stream().distinct().sorted(Comparator.nullsFirst(Comparator.naturalOrder())).toList();
+        return new Key(List.copyOf(words), sortedSiteIds, offset, limit);
+    }
+
+    /* версии берутся до поиска: если индекс изменится во время поиска, сохранённый результат сразу устареет */
+    public long[] versions(Key key) {
+        long[] siteVersions = new long[key.getSiteIds().size()];
+        for (int i = 0; i < siteVersions.length; i++) {
+            Long siteId = key.getSiteIds().get(i);
+            AtomicLong version = siteId == null ? null : versions.get(siteId);
+            siteVersions[i] = version == null ? 0 : version.get();
+        }
+        return siteVersions;
+    }
+
+    public Result get(Key key) {
+        if (results == null) {
+            return null;
+        }
+        Entry entry = results.getIfPresent(key);
+        if (entry != null && !Arrays.equals(entry.versions, versions(key))) {
+            results.invalidate(key);
+            staleResults.increment();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.result;
+    }
+
+    public void put(Key key, long[] siteVersions, Result result) {
+        if (results != null) {
+            results.put(key, new Entry(siteVersions, result));
+        }
+    }
+
+    public void invalidateSite(Long siteId) {
+        versions.computeIfAbsent(siteId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "searchCache";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("resultCacheSize", size);
+        if (results == null) {
+            return metrics;
+        }
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        metrics.put("resultCacheEntries", results.estimatedSize());
+        metrics.put("resultCacheHits", hitCount);
+        metrics.put("resultCacheMisses", requests - hitCount);
+        metrics.put("resultCacheHitRatio", requests == 0 ? 0.0 : (double) hitCount / requests);
+        metrics.put("resultCacheStaleResults", staleResults.sum());
+        metrics.put("resultCacheEvictions", results.stats().evictionCount());
+        return metrics;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Key {
+        private List<String> words;
+        private List<Long> siteIds;
+        private int offset;
+        private int limit;
+    }
+
+    /* lemmas - леммы, по которым нашлись страницы: сообщение об исправлении запроса строится по ним для каждого запроса */
+    @Data
+    @AllArgsConstructor
+    public static class Result {
+        private List<String> lemmas;
+        private List<FoundPage> pages;
+    }
+
+    private static final class Entry {
+        private final long[] versions;
+        private final Result result;
+
+        private Entry(long[] versions, Result result) {
+            this.versions = versions;
+            this.result = result;
+        }
+    }
+}
@@ -24,9 +24,13 @@ import java.util.stream.Collectors;
 public class SearchService {
 
     private CommonContext commonContext;
+    private InvertedIndex invertedIndex;
+    private SearchResultCache resultCache;
 
-    public SearchService(CommonContext commonContext) {
+    public SearchService(CommonContext commonContext, InvertedIndex invertedIndex, SearchResultCache resultCache) {
         this.commonContext = commonContext;
+        this.invertedIndex = invertedIndex;
+        this.resultCache = resultCache;
     }
 
     private static final double THRESHOLD = 0.97;
@@ -39,7 +43,6 @@ public class SearchService {
         List<Site> sitesToSearch;
         List<PageDTO> foundPages;
         List<String> filteredLemmas;
-        String message = "";
 
         long searchStartTime = System.nanoTime();
 
@@ -51,7 +54,18 @@ public class SearchService {
             throw new SearchException("Не удалось выделить леммы для поиска из запроса");
         }
 
-        filteredLemmas = commonContext.getDatabaseService().filterPopularLemmasOut(sitesToSearch, List.of(searchWordsNormalForms), THRESHOLD);
+        /* одинаковые запросы и переходы по страницам выдачи берутся из кеша, пока индекс сайтов не менялся */
+        String[] queryWords = commonContext.getMorphologyService().splitStringToLowercaseWords(request.getQuery());
+        SearchResultCache.Key cacheKey = resultCache.key(List.of(queryWords),
+                sitesToSearch.stream().map(Site::getId).collect(Collectors.toList()), request.getOffset(), request.getLimit());
+        SearchResultCache.Result cached = resultCache.get(cacheKey);
+        if (cached != null) {
+            log.info("search for request \"" + request.getQuery() + "\" taken from cache, found " + cached.getPages().size() + " pages");
+            return searchResponse(request, cached, searchWordsNormalForms.length, searchStartTime);
+        }
+        long[] indexVersions = resultCache.versions(cacheKey);
+
+        filteredLemmas = new ArrayList<>(filterPopularLemmasOut(sitesToSearch, List.of(searchWordsNormalForms)));
 
         if (filteredLemmas.size() == 0) {
             throw new SearchException("По запросу '" + request.getQuery() + "' ничего не найдено");
@@ -63,13 +77,8 @@ public class SearchService {
             throw new SearchException("По запросу '" + request.getQuery() + "' ничего не найдено");
         }
 
-        String finalQuery = request.getQuery();
-        if (filteredLemmas.size() < searchWordsNormalForms.length) {
-            finalQuery = correctQuery(filteredLemmas, finalQuery);
-            message = "По запросу '" + request.getQuery() + "' ничего не найдено. " +
-                    "Скорректированный запрос: '" + finalQuery + "'.";
-            log.info(message);
-        }
+        String finalQuery = filteredLemmas.size() < searchWordsNormalForms.length ?
+                correctQuery(filteredLemmas, request.getQuery()) : request.getQuery();
 
         double maxRelevance = foundPages.get(0).getRelevance();
         ForkJoinPool pool = ForkJoinPool.commonPool();
@@ -80,11 +89,24 @@ public class SearchService {
         List<FoundPage> searchResults = pool.submit(pp).join();
 
         log.info("search for request \"" + request.getQuery() + "\" complete, found " + searchResults.size() + " pages");
+        SearchResultCache.Result result = new SearchResultCache.Result(List.copyOf(filteredLemmas), searchResults);
+        resultCache.put(cacheKey, indexVersions, result);
+        return searchResponse(request, result, searchWordsNormalForms.length, searchStartTime);
+    }
+
+    /* сообщение цитирует запрос, поэтому строится заново и для результата из кеша */
+    private SearchResponse searchResponse(SearchRequest request, SearchResultCache.Result result, int lemmaCount, long searchStartTime) {
+        String message = "";
+        if (result.getLemmas().size() < lemmaCount) {
+            message = "По запросу '" + request.getQuery() + "' ничего не найдено. " +
+                    "Скорректированный запрос: '" + correctQuery(result.getLemmas(), request.getQuery()) + "'.";
+            log.info(message);
+        }
         return new SearchResponse(
                 true,
                 message + String.format(" Время поиска : %.3f сек.", (System.nanoTime() - searchStartTime)/1000000000.),
-                searchResults.size(),
-                searchResults
+                result.getPages().size(),
+                new ArrayList<>(result.getPages())
         );
     }
 
@@ -98,11 +120,20 @@ public class SearchService {
         }
     }
 
+    /* частоты лемм берутся из индекса в памяти, пока он не загружен - из базы */
+    private List<String> filterPopularLemmasOut(List<Site> sitesToSearch, List<String> lemmas) {
+        if (!invertedIndex.isReady()) {
+            return commonContext.getDatabaseService().filterPopularLemmasOut(sitesToSearch, lemmas, THRESHOLD);
+        }
+        return invertedIndex.filterPopularLemmasOut(sitesToSearch.stream().map(Site::getId).collect(Collectors.toList()),
+                lemmas, THRESHOLD);
+    }
+
     List<PageDTO> findRelevantPages(List<String> filteredLemmas, List<Site> sitesToSearch, int limit, int offset) {
         List<PageDTO> foundPages;
+        List<Long> siteIds = sitesToSearch.stream().map(Site::getId).collect(Collectors.toList());
         do {
-            foundPages = commonContext.getDatabaseService().getSortedRelevantPageDTOs(filteredLemmas,
-                    sitesToSearch.stream().map(Site::getId).collect(Collectors.toList()), limit, offset);
+            foundPages = findPages(filteredLemmas, siteIds, limit, offset);
             if (foundPages.size() > 0) {
                 break;
             }
@@ -113,6 +144,18 @@ public class SearchService {
         return foundPages;
     }
 
+    /* страницы пересекаются и ранжируются в памяти, из базы берётся только содержимое страниц выдачи */
+    private List<PageDTO> findPages(List<String> lemmas, List<Long> siteIds, int limit, int offset) {
+        if (!invertedIndex.isReady()) {
+            return commonContext.getDatabaseService().getSortedRelevantPageDTOs(lemmas, siteIds, limit, offset);
+        }
+        List<ScoredPage> rankedPages = invertedIndex.findPages(siteIds, lemmas, limit, offset);
+        if (rankedPages.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return commonContext.getDatabaseService().getRankedPageDTOs(rankedPages);
+    }
+
     String correctQuery(List<String> lemmas, String originalQuery) {
         MorphologyService ms = commonContext.getMorphologyService();
 
@@ -1628,6 +1628,8 @@ var API = function(){
                                 time.getSeconds() +
                                 '</div><div class="Statistics-option"><strong>Pages:</strong> ' + site.pages +
                                 '</div><div class="Statistics-option"><strong>Lemmas:</strong> ' + site.lemmas +
+                                '</div><div class="Statistics-option"><strong>Visited URLs:</strong> ' + site.visitedUrls +
+                                ' (' + Math.ceil(site.visitedUrlsMemory / 1024) + ' KB)' +
                                 '</div><div class="Statistics-option Statistics-option_error"><strong>Error:</strong> ' + site.error + '</div>'+
                                 '')
     
@@ -0,0 +1,125 @@
+package com.github.dmitriims.posikengine.repositories;
+
+import com.github.dmitriims.posikengine.model.Index;
+import com.github.dmitriims.posikengine.model.Lemma;
+import com.github.dmitriims.posikengine.model.Page;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/*
+ * запускается только с профилем benchmark: mvn test -Pbenchmark. Нужна база PostgreSQL, по умолчанию та же,
+ * что в application.yml, другую можно указать через -Dbenchmark.db.url, -Dbenchmark.db.user и -Dbenchmark.db.password.
+ * Таблица index и её последовательность создаются временными и закрывают собой настоящие, данные в базе не меняются
+ */
+@Tag("benchmark")
+public class IndexCopyWriterBenchmarkTest {
+
+    private static final int PAGES = 200;
+    private static final int LEMMAS_PER_PAGE = 500;
+    private static final int HIBERNATE_BATCH_SIZE = 100;
+    private static final int ROUNDS = 3;
+
+    @Test
+    @DisplayName("copy - строки индекса через COPY против пакетных вставок, как у Hibernate")
+    public void benchmarkCopy() throws SQLException {
+        try (Connection connection = connect()) {
+            connection.setAutoCommit(false);
+            createScratchTables(connection);
+            List<Index> indexes = indexes();
+
+            long insertTime = Long.MAX_VALUE;
+            long copyTime = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                insertInBatches(connection, indexes);
+                insertTime = Math.min(insertTime, System.nanoTime() - start);
+                assertEquals(indexes.size(), countAndClean(connection));
+
+                start = System.nanoTime();
+                long copied = IndexCopyWriter.copy(connection, indexes);
+                copyTime = Math.min(copyTime, System.nanoTime() - start);
+                assertEquals(indexes.size(), copied);
+                assertEquals(indexes.size(), countAndClean(connection));
+            }
+            connection.rollback();
+
+            System.out.printf("%d index rows: batched inserts %d ms, copy %d ms%n",
+                    indexes.size(), insertTime / 1_000_000, copyTime / 1_000_000);
+            assertTrue(copyTime < insertTime, "COPY должен быть быстрее вставок");
+        }
+    }
+
+    private Connection connect() {
+        try {
+            return DriverManager.getConnection(
+                    System.getProperty("benchmark.db.url", "jdbc:postgresql://localhost:5432/search_engine"),
+                    System.getProperty("benchmark.db.user", "search_engine"),
+                    System.getProperty("benchmark.db.password", "posikEngine"));
+        } catch (SQLException e) {
+            assumeTrue(false, "база для замера недоступна: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void createScratchTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create temp table index (id int8 primary key, page_id int8 not null, lemma_id int8 not null, " +
+                    "rank float8 not null, count int4 not null, unique (page_id, lemma_id))");
+            statement.execute("create temp sequence index_sequence increment by " + HIBERNATE_BATCH_SIZE);
+        }
+    }
+
+    /* так пишет Hibernate с batch_size: 100 и id, заранее выделенными пачкой из последовательности */
+    private void insertInBatches(Connection connection, List<Index> indexes) throws SQLException {
+        long id = 0;
+        try (PreparedStatement statement = connection.prepareStatement(
+                "insert into index (count, lemma_id, page_id, rank, id) values (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < indexes.size(); i++) {
+                Index index = indexes.get(i);
+                statement.setInt(1, index.getCount());
+                statement.setLong(2, index.getLemma().getId());
+                statement.setLong(3, index.getPage().getId());
+                statement.setDouble(4, index.getRank());
+                statement.setLong(5, ++id);
+                statement.addBatch();
+                if ((i + 1) % HIBERNATE_BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private long countAndClean(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet count = statement.executeQuery("select count(*) from index")) {
+            count.next();
+            long rows = count.getLong(1);
+            statement.execute("truncate index");
+            return rows;
+        }
+    }
+
+    private List<Index> indexes() {
+        Random random = new Random(42);
+        List<Index> indexes = new ArrayList<>(PAGES * LEMMAS_PER_PAGE);
+        for (long pageId = 1; pageId <= PAGES; pageId++) {
+            Page page = new Page();
+            page.setId(pageId);
+            for (long lemmaId = 1; lemmaId <= LEMMAS_PER_PAGE; lemmaId++) {
+                Lemma lemma = new Lemma(lemmaId, null, "l" + lemmaId, 1);
+                indexes.add(new Index(page, lemma, Math.ceil(random.nextDouble() * 30) / 10, 1 + random.nextInt(5)));
+            }
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.dmitriims.posikengine.service;
+
+import com.github.dmitriims.posikengine.dto.LemmaIdDTO;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.SearchSettings;
+import com.github.dmitriims.posikengine.model.Lemma;
+import com.github.dmitriims.posikengine.model.Page;
+import com.github.dmitriims.posikengine.model.Site;
+import com.github.dmitriims.posikengine.repositories.*;
+import com.github.dmitriims.posikengine.service.indexing.PageWriteTask;
+import com.github.dmitriims.posikengine.service.search.InvertedIndex;
+import com.github.dmitriims.posikengine.service.search.ScoredPage;
+import com.github.dmitriims.posikengine.service.search.SearchResultCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+@ExtendWith(MockitoExtension.class)
+public class DatabaseServiceTest {
+
+    @Mock
+    SiteRepository siteRepository;
+    @Mock
+    PageRepository pageRepository;
+    @Mock
+    LemmaRepository lemmaRepository;
+    @Mock
+    IndexRepository indexRepository;
+    @Mock
+    FieldRepository fieldRepository;
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    SearchResultCache searchResultCache = new SearchResultCache(new SearchSettings());
+    InvertedIndex invertedIndex = new InvertedIndex(new SearchSettings());
+
+    DatabaseService databaseService;
+
+    @BeforeEach
+    public void init() {
+        databaseService = new DatabaseService(siteRepository, pageRepository, lemmaRepository, indexRepository, fieldRepository,
+                new IndexingSettings(), transactionManager, invertedIndex, searchResultCache);
+    }
+
+    @AfterEach
+    public void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("addPageToSavedPagesMap - страницы откаченной транзакции не считаются сохранёнными")
+    public void testSavedPagesRegisteredAfterCommitOnly() {
+        inTransaction(() -> databaseService.addPageToSavedPagesMap(1L, 5L), TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertFalse(databaseService.removeDeletedPagesForSite(1L), "после отката сайт не должен считаться проиндексированным");
+    }
+
+    @Test
+    @DisplayName("removeDeletedPagesForSite - удаляются страницы, которые не были сохранены при обходе")
+    public void testRemoveDeletedPages() {
+        Site site = new Site();
+        site.setUrl("http://test.test");
+        inTransaction(() -> databaseService.addPageToSavedPagesMap(1L, 5L), TransactionSynchronization.STATUS_COMMITTED);
+        Mockito.when(pageRepository.getAllIdsBySiteId(List.of(1L))).thenReturn(List.of(5L, 6L));
+        Mockito.when(siteRepository.findById(1L)).thenReturn(Optional.of(site));
+        Mockito.when(lemmaRepository.subtractFrequenciesOfPages(anyList())).thenReturn(List.of());
+
+        assertTrue(databaseService.removeDeletedPagesForSite(1L));
+        Mockito.verify(pageRepository).deleteByIds(List.of(6L));
+    }
+
+    @Test
+    @DisplayName("switchGeneration - до переключения ищутся страницы старого поколения, после него старое поколение удаляется")
+    public void testSwitchGeneration() {
+        Site site = site(2);
+        loadGeneration(1, 1L);
+        Page newPage = new Page();
+        newPage.setId(2L);
+        newPage.setSite(site);
+        newPage.setGeneration(2);
+        invertedIndex.putPage(newPage, List.of());
+        Mockito.when(pageRepository.countBySiteIdAndGeneration(1L, 2)).thenReturn(1L);
+        Mockito.when(siteRepository.findById(1L)).thenReturn(Optional.of(site));
+        Mockito.when(pageRepository.getAllIdsBySiteId(List.of(1L))).thenReturn(List.of(2L));
+        Mockito.doAnswer(invocation -> {
+            invocation.<IndexRepositoryCustom.IndexRowHandler>getArgument(1).accept(1L, 2L, "мама", 1.0);
+            return null;
+        }).when(indexRepository).streamActiveIndexRows(eq(List.of(1L)), any());
+        Mockito.when(siteRepository.getGenerationById(1L)).thenReturn(2);
+        assertEquals(List.of(1L), foundPages(), "пока поколение не переключено, ищется старое");
+
+        assertTrue(databaseService.switchGeneration(1L, 2));
+
+        InOrder order = Mockito.inOrder(siteRepository, indexRepository, lemmaRepository, pageRepository);
+        assertAll(() -> order.verify(siteRepository).updateGeneration(1L, 2),
+                () -> order.verify(indexRepository).deleteOtherGenerations(1L, 2),
+                () -> order.verify(lemmaRepository).deleteOtherGenerations(1L, 2),
+                () -> order.verify(pageRepository).deleteOtherGenerations(1L, 2),
+                () -> Mockito.verify(siteRepository, Mockito.never()).save(any()),
+                () -> assertEquals(List.of(2L), foundPages()));
+    }
+
+    @Test
+    @DisplayName("switchGeneration - новое поколение пустое - остаётся старое, удаляются остальные")
+    public void testSwitchToEmptyGeneration() {
+        loadGeneration(1, 1L);
+        Mockito.when(pageRepository.countBySiteIdAndGeneration(1L, 2)).thenReturn(0L);
+        Mockito.when(siteRepository.getGenerationById(1L)).thenReturn(1);
+
+        assertFalse(databaseService.switchGeneration(1L, 2));
+
+        assertAll(() -> Mockito.verify(siteRepository, Mockito.never()).updateGeneration(any(), anyInt()),
+                () -> Mockito.verify(pageRepository).deleteOtherGenerations(1L, 1),
+                () -> assertEquals(List.of(1L), foundPages()));
+    }
+
+    @Test
+    @DisplayName("flushLemmaFrequencies - после записи частот сохранённые результаты поиска по сайту устаревают")
+    public void testFrequencyFlushInvalidatesSearchResults() {
+        Site site = site(1);
+        Lemma lemma = new Lemma(null, site, "мама", 1);
+        LemmaIdDTO lemmaId = Mockito.mock(LemmaIdDTO.class);
+        Mockito.when(lemmaId.getLemma()).thenReturn("мама");
+        Mockito.when(lemmaId.getId()).thenReturn(10L);
+        Mockito.when(lemmaRepository.getLemmaIdsBySiteIdAndGeneration(1L, 1)).thenReturn(List.of(lemmaId));
+        databaseService.saveLemmas(site, 1, List.of(new PageWriteTask(new Page(), List.of(lemma))));
+        SearchResultCache.Key key = searchResultCache.key(List.of("мама"), List.of(1L), 0, 10);
+        long[] versions = searchResultCache.versions(key);
+
+        databaseService.flushLemmaFrequencies(List.of(1L));
+
+        assertAll(() -> Mockito.verify(lemmaRepository).addToFrequencies(Map.of(10L, 1L)),
+                () -> assertFalse(Arrays.equals(versions, searchResultCache.versions(key))));
+    }
+
+    private Site site(int generation) {
+        Site site = new Site();
+        site.setId(1L);
+        site.setUrl("http://test.test");
+        site.setGeneration(generation);
+        return site;
+    }
+
+    private void loadGeneration(int generation, Long pageId) {
+        InvertedIndex.Loader loader = invertedIndex.newLoader(true);
+        loader.addSite(1L, generation);
+        loader.addPage(1L, pageId);
+        loader.addPosting(1L, pageId, "мама", 1.0);
+        loader.install();
+    }
+
+    private List<Long> foundPages() {
+        return invertedIndex.findPages(List.of(1L), List.of("мама"), 10, 0).stream().map(ScoredPage::getPageId).toList();
+    }
+
+    private void inTransaction(Runnable action, int status) {
+        TransactionSynchronizationManager.initSynchronization();
+        action.run();
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(status);
+        }
+    }
+}
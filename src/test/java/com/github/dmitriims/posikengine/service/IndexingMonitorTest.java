@@ -0,0 +1,128 @@
+package com.github.dmitriims.posikengine.service;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.SearchSettings;
+import com.github.dmitriims.posikengine.model.Site;
+import com.github.dmitriims.posikengine.model.Status;
+import com.github.dmitriims.posikengine.repositories.*;
+import com.github.dmitriims.posikengine.service.crawler.CrawlerContext;
+import com.github.dmitriims.posikengine.service.crawler.FrontierCheckpointer;
+import com.github.dmitriims.posikengine.service.indexing.PageWriter;
+import com.github.dmitriims.posikengine.service.search.InvertedIndex;
+import com.github.dmitriims.posikengine.service.search.SearchResultCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+
+@ExtendWith(MockitoExtension.class)
+public class IndexingMonitorTest {
+
+    @Mock
+    SiteRepository siteRepository;
+    @Mock
+    PageRepository pageRepository;
+    @Mock
+    LemmaRepository lemmaRepository;
+    @Mock
+    IndexRepository indexRepository;
+    @Mock
+    FieldRepository fieldRepository;
+    @Mock
+    PlatformTransactionManager transactionManager;
+    @Mock
+    CommonContext commonContext;
+    @Mock
+    PageWriter pageWriter;
+    @Mock
+    FrontierCheckpointer checkpointer;
+
+    DatabaseService databaseService;
+    Site finishedFirst;
+    Site finishedLater;
+
+    @BeforeEach
+    public void init() {
+        databaseService = new DatabaseService(siteRepository, pageRepository, lemmaRepository, indexRepository, fieldRepository,
+                new IndexingSettings(), transactionManager, new InvertedIndex(new SearchSettings()),
+                new SearchResultCache(new SearchSettings()));
+        finishedFirst = site(1L);
+        finishedLater = site(2L);
+        Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+        Mockito.when(commonContext.getPageWriter()).thenReturn(pageWriter);
+        Mockito.when(commonContext.getCheckpointer()).thenReturn(checkpointer);
+    }
+
+    @Test
+    @DisplayName("run - возобновлённый сайт закончил раньше - сохранённые страницы другого сайта не забываются")
+    public void testResumedSiteKeepsOtherSitesSavedPages() {
+        CrawlerContext resumed = context(finishedFirst);
+        resumed.setResumed(true);
+
+        runUntilBothFinish(resumed);
+
+        assertAll(() -> Mockito.verify(pageRepository).deleteByIds(List.of(6L)),
+                () -> assertEquals(Status.INDEXED, finishedLater.getStatus(), "страницы второго сайта не должны потеряться"));
+    }
+
+    @Test
+    @DisplayName("run - сайт упёрся в лимит и закончил раньше - его страницы не удаляются, а другой сайт чистится как обычно")
+    public void testTruncatedSiteKeepsOtherSitesSavedPages() {
+        CrawlerContext truncated = context(finishedFirst);
+        truncated.setTruncated(true);
+
+        runUntilBothFinish(truncated);
+
+        assertAll(() -> Mockito.verify(pageRepository, Mockito.never()).getAllIdsBySiteId(List.of(1L)),
+                () -> Mockito.verify(pageRepository).deleteByIds(List.of(6L)),
+                () -> assertEquals(Status.INDEXED, finishedFirst.getStatus()),
+                () -> assertEquals(Status.INDEXED, finishedLater.getStatus(), "страницы второго сайта не должны потеряться"));
+    }
+
+    /*
+     * первый сайт заканчивает на первом проходе монитора, у второго к этому времени ещё пишутся страницы.
+     * Второй сайт сохранил страницу 5, а в базе у него есть ещё и пропавшая с сайта страница 6
+     */
+    private void runUntilBothFinish(CrawlerContext first) {
+        Map<Site, CrawlerContext> contexts = new LinkedHashMap<>();
+        contexts.put(finishedFirst, first);
+        contexts.put(finishedLater, context(finishedLater));
+        databaseService.addPageToSavedPagesMap(1L, 7L);
+        databaseService.addPageToSavedPagesMap(2L, 5L);
+        Mockito.when(pageWriter.hasPendingPages(1L)).thenReturn(false);
+        Mockito.when(pageWriter.hasPendingPages(2L)).thenReturn(true, false);
+        Mockito.when(siteRepository.findById(1L)).thenReturn(Optional.of(finishedFirst));
+        Mockito.when(siteRepository.findById(2L)).thenReturn(Optional.of(finishedLater));
+        Mockito.when(pageRepository.getAllIdsBySiteId(List.of(2L))).thenReturn(List.of(5L, 6L));
+        Mockito.when(lemmaRepository.subtractFrequenciesOfPages(anyList())).thenReturn(List.of());
+
+        new IndexingMonitor(contexts, commonContext).run();
+
+        assertTrue(contexts.isEmpty());
+    }
+
+    private Site site(Long id) {
+        Site site = new Site();
+        site.setId(id);
+        site.setUrl("http://test" + id + ".test");
+        site.setStatus(Status.INDEXING);
+        return site;
+    }
+
+    private CrawlerContext context(Site site) {
+        return new CrawlerContext(site, 100, new HashSet<>(), null);
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.dmitriims.posikengine.service;
+
+import com.github.dmitriims.posikengine.model.Field;
+import com.github.dmitriims.posikengine.model.Lemma;
+import com.github.dmitriims.posikengine.model.Site;
+import com.github.dmitriims.posikengine.service.crawler.CrawlerContext;
+import crawlercommons.robots.SimpleRobotRules;
+import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
+import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/* запускается только с профилем benchmark: mvn test -Pbenchmark */
+@Tag("benchmark")
+public class LemmaUtilsBenchmarkTest {
+
+    private static final int DISTINCT_WORDS = 5000;
+    private static final int PARAGRAPHS = 400;
+    private static final int WORDS_PER_PARAGRAPH = 100;
+    private static final int ROUNDS = 3;
+
+    MorphologyService morphologyService = new MorphologyService(WordTokenizer.NOT_A_WORD_PATTERN,
+            new RussianLuceneMorphology(), new EnglishLuceneMorphology());
+
+    public LemmaUtilsBenchmarkTest() throws IOException {
+    }
+
+    @Test
+    @DisplayName("getAndRankAllLemmas - большая страница, таблица против поиска по списку")
+    public void benchmarkGetAndRankAllLemmas() throws IOException {
+        String html = largePage();
+        CrawlerContext context = context();
+
+        long hashTime = Long.MAX_VALUE;
+        long listTime = Long.MAX_VALUE;
+        List<Lemma> hashLemmas = null;
+        List<Lemma> listLemmas = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            Document doc = Jsoup.parse(html);
+            long start = System.nanoTime();
+            hashLemmas = LemmaUtils.getAndRankAllLemmas(doc, context, morphologyService);
+            hashTime = Math.min(hashTime, System.nanoTime() - start);
+
+            doc = Jsoup.parse(html);
+            start = System.nanoTime();
+            listLemmas = rankWithListLookup(doc, context);
+            listTime = Math.min(listTime, System.nanoTime() - start);
+        }
+
+        System.out.printf("lemmas of a %d KB page, %d distinct: hash table %d ms, list lookup %d ms%n",
+                html.length() / 1024, hashLemmas.size(), hashTime / 1_000_000, listTime / 1_000_000);
+        assertEquals(asMap(listLemmas), asMap(hashLemmas));
+    }
+
+    private Map<String, String> asMap(List<Lemma> lemmas) {
+        Map<String, String> result = new HashMap<>();
+        lemmas.forEach(l -> result.put(l.getLemma(), l.getFrequency() + "/" + l.getRank()));
+        return result;
+    }
+
+    /* прежний способ подсчёта: поиск каждой леммы в списке через equals */
+    private List<Lemma> rankWithListLookup(Document doc, CrawlerContext context) {
+        List<Lemma> allLemmas = new ArrayList<>();
+        for (Field f : context.getFields()) {
+            Elements fieldElements = doc.select(f.getSelector());
+            for (Element fieldElement : fieldElements) {
+                for (Map.Entry<String, Integer> lemmaCount : LemmaUtils.getAndCountNormalFormsInString(fieldElement.text(), morphologyService).entrySet()) {
+                    Lemma tempLemma = new Lemma();
+                    tempLemma.setSite(context.getSite());
+                    tempLemma.setLemma(lemmaCount.getKey());
+                    tempLemma.setFrequency(lemmaCount.getValue());
+                    tempLemma.setRank(lemmaCount.getValue() * f.getWeight());
+
+                    int index = allLemmas.indexOf(tempLemma);
+                    if (index < 0) {
+                        allLemmas.add(tempLemma);
+                        continue;
+                    }
+                    Lemma toUpdate = allLemmas.get(index);
+                    toUpdate.setFrequency(toUpdate.getFrequency() + tempLemma.getFrequency());
+                    toUpdate.setRank(Math.ceil((toUpdate.getRank() + tempLemma.getRank()) * 10) / 10);
+                }
+            }
+            if (!f.getSelector().equals("title") && !f.getSelector().equals("body")) {
+                fieldElements.remove();
+            }
+        }
+        return allLemmas;
+    }
+
+    private CrawlerContext context() {
+        Site site = new Site();
+        site.setUrl("http://test.test");
+        Set<Field> fields = new LinkedHashSet<>();
+        fields.add(field("title", 1.0));
+        fields.add(field("h1", 0.9));
+        fields.add(field("body", 0.8));
+        return new CrawlerContext(site, 1, fields, new SimpleRobotRules());
+    }
+
+    private Field field(String selector, double weight) {
+        Field field = new Field();
+        field.setName(selector);
+        field.setSelector(selector);
+        field.setWeight(weight);
+        return field;
+    }
+
+    /* числа считаются леммами сами по себе, поэтому на них легко получить тысячи разных лемм */
+    private String largePage() {
+        Random random = new Random(42);
+        StringBuilder html = new StringBuilder("<html><head><title>тест test</title></head><body>");
+        for (int p = 0; p < PARAGRAPHS; p++) {
+            html.append(p % 10 == 0 ? "<h1>" : "<p>");
+            for (int w = 0; w < WORDS_PER_PARAGRAPH; w++) {
+                html.append(w % 7 == 0 ? "тест" : Integer.toString(random.nextInt(DISTINCT_WORDS))).append(' ');
+            }
+            html.append(p % 10 == 0 ? "</h1>" : "</p>");
+        }
+        return html.append("</body></html>").toString();
+    }
+}
@@ -219,20 +219,42 @@ public class LemmaUtilsTest {
             add(lemma2);
             add(lemma1);
         }};
-        String expectedHtml = "<html><head><title>Title</title></head><body>body</body></html>";
+        String expectedHtml = "<html><head><title>Title</title></head><body><h1>body</h1>body</body></html>";
 
         List<Lemma> actual = LemmaUtils.getAndRankAllLemmas(doc, crawlerContext, morphologyService);
         String actualHtml = doc.outerHtml().replaceAll("\n|\s", "");
 
         actual.sort(Comparator.comparing(Lemma::getFrequency));
 
-        assertAll("Массивы должны быть одинаковыми по equals и у лемм должны совпадать частоты и ранги, из документа должен быть удалён тег h1",
+        assertAll("Массивы должны быть одинаковыми по equals и у лемм должны совпадать частоты и ранги, документ не должен меняться",
                 () -> assertIterableEquals(expected, actual, "массивы должны совпадать"),
                 () -> assertEquals(expected.get(0).getFrequency(),actual.get(0).getFrequency(), "частоты первых лемм должны быть равны"),
                 () -> assertEquals(expected.get(0).getRank(),actual.get(0).getRank(), "ранги первых лемм должны быть равны"),
                 () -> assertEquals(expected.get(1).getFrequency(),actual.get(1).getFrequency(), "частоты вторых лемм должны быть равны"),
                 () -> assertEquals(expected.get(1).getRank(),actual.get(1).getRank(), "ранги вторых лемм должны быть равны"),
-                () -> assertEquals(expectedHtml, actualHtml, "h1 должен быть удалён из документа"));
+                () -> assertEquals(expectedHtml, actualHtml, "документ не должен меняться"));
+    }
+
+    @Test
+    @DisplayName("getAndRankAllLemmas - слово в двух вложенных полях считается один раз с весами обоих полей")
+    public void testGetAndRankAllLemmasNestedFields() throws IOException {
+        Field anchor = new Field();
+        anchor.setName("anchor");
+        anchor.setSelector("a");
+        anchor.setWeight(0.5);
+        fields.add(anchor);
+        String html = "<html><head><title></title></head><body><h1><a href=\"/\">Test</a></h1><p>Te<b>st</b></p></body></html>";
+        Document doc = Jsoup.parse(html);
+
+        Mockito.when(crawlerContext.getFields()).thenReturn(fields);
+
+        List<Lemma> actual = LemmaUtils.getAndRankAllLemmas(doc, crawlerContext, morphologyService);
+
+        assertAll("в h1 и ссылке слово встречается один раз, а разрыв тегом внутри абзаца слово не делит",
+                () -> assertEquals(1, actual.size(), "лемма должна быть одна"),
+                () -> assertEquals("test", actual.get(0).getLemma(), "лемма должна быть test"),
+                () -> assertEquals(2, actual.get(0).getFrequency(), "частота должна быть 2"),
+                () -> assertEquals(2.2, actual.get(0).getRank(), "ранг должен быть 0.9 + 0.5 + 0.8"));
     }
 
     @Test
@@ -0,0 +1,110 @@
+package com.github.dmitriims.posikengine.service;
+
+import org.apache.lucene.morphology.LuceneMorphology;
+import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
+import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/* запускается только с профилем benchmark: mvn test -Pbenchmark */
+@Tag("benchmark")
+public class MorphologyServiceBenchmarkTest {
+
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final int WORDS = 2_000_000;
+    private static final int ROUNDS = 5;
+    private static final String CYRILLIC_SUFFIXES = "абвгдежзийклмнопрстуфхцчшщыэюя";
+    private static final String LATIN_SUFFIXES = "abcdefghijklmnopqrstuvwxyz";
+
+    private final Logger log = LoggerFactory.getLogger(MorphologyServiceBenchmarkTest.class);
+
+    LuceneMorphology russianLuceneMorphology = new RussianLuceneMorphology();
+    LuceneMorphology englishLuceneMorphology = new EnglishLuceneMorphology();
+    String notAWord = WordTokenizer.NOT_A_WORD_PATTERN;
+
+    public MorphologyServiceBenchmarkTest() throws IOException {
+    }
+
+    @Test
+    @DisplayName("getNormalFormOfAWord - с кешем и без, слова с распределением Ципфа")
+    public void benchmarkNormalFormCache() {
+        String[] vocabulary = vocabulary();
+        String[] text = zipfText(vocabulary);
+        MorphologyService uncached = new MorphologyService(notAWord, russianLuceneMorphology, englishLuceneMorphology, 0);
+        MorphologyService cached = new MorphologyService(notAWord, russianLuceneMorphology, englishLuceneMorphology, 10000);
+
+        long uncachedTime = Long.MAX_VALUE;
+        long cachedTime = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            uncachedTime = Math.min(uncachedTime, run(uncached, text));
+            cachedTime = Math.min(cachedTime, run(cached, text));
+        }
+
+        log.info(String.format("normal forms, %d words: without cache %d ms, with cache %d ms, hit ratio %.3f",
+                WORDS, uncachedTime / 1_000_000, cachedTime / 1_000_000, cached.getMetrics().get("normalFormCacheHitRatio").doubleValue()));
+        /* время зависит от словарей и машины, поэтому проверяется, что кеш работает и не меняет нормальные формы */
+        for (String word : vocabulary) {
+            assertEquals(uncached.getNormalFormOfAWord(word), cached.getNormalFormOfAWord(word), word);
+        }
+        assertTrue(cached.getMetrics().get("normalFormCacheHitRatio").doubleValue() > 0.5);
+    }
+
+    private long run(MorphologyService service, String[] text) {
+        long start = System.nanoTime();
+        for (String word : text) {
+            service.getNormalFormOfAWord(word);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /* окончания пишутся алфавитом основы, чтобы слова доходили до словаря, а не отбрасывались как смешанные */
+    private String[] vocabulary() {
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        String[] stems = {"тест", "слово", "дом", "лес", "ёлка", "test", "word", "house", "42"};
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            String stem = stems[i % stems.length];
+            if (i < stems.length) {
+                vocabulary[i] = stem;
+            } else if (Character.isDigit(stem.charAt(0))) {
+                vocabulary[i] = stem + i;
+            } else {
+                vocabulary[i] = stem + suffix(i, Character.UnicodeBlock.of(stem.charAt(0)) == Character.UnicodeBlock.CYRILLIC ?
+                        CYRILLIC_SUFFIXES : LATIN_SUFFIXES);
+            }
+        }
+        return vocabulary;
+    }
+
+    private String suffix(int number, String alphabet) {
+        StringBuilder suffix = new StringBuilder();
+        do {
+            suffix.append(alphabet.charAt(number % alphabet.length()));
+            number /= alphabet.length();
+        } while (number > 0);
+        return suffix.toString();
+    }
+
+    private String[] zipfText(String[] vocabulary) {
+        double[] cumulative = new double[VOCABULARY_SIZE];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(42);
+        String[] text = new String[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            int index = java.util.Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            text[i] = vocabulary[Math.min(VOCABULARY_SIZE - 1, index < 0 ? -index - 1 : index)];
+        }
+        return text;
+    }
+}
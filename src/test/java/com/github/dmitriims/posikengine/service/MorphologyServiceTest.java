@@ -5,6 +5,7 @@ import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
 import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 
 
 import java.io.IOException;
@@ -208,4 +209,60 @@ public class MorphologyServiceTest {
         List<String> actual = morphologyService.getNormalFormOfAWord("猫");
         assertIterableEquals(expected, actual);
     }
+
+    @Test
+    @DisplayName("getNormalFormOfAWord - повторное слово берётся из кеша")
+    public void testGetNormalFormOfAWordCached() {
+        MorphologyService cached = new MorphologyService(notAWord, russianLuceneMorphology, englishLuceneMorphology, 10);
+
+        List<String> first = cached.getNormalFormOfAWord("тест");
+        List<String> second = cached.getNormalFormOfAWord("тест");
+        cached.getNormalFormOfAWord("или");
+        cached.getNormalFormOfAWord("или");
+
+        assertAll(() -> assertSame(first, second),
+                () -> assertThrows(UnsupportedOperationException.class, () -> first.add("тесто")),
+                () -> assertEquals(2L, cached.getMetrics().get("normalFormCacheHits")),
+                () -> assertEquals(2L, cached.getMetrics().get("normalFormCacheMisses")));
+    }
+
+    @Test
+    @DisplayName("getNormalFormOfAWord - кеш отключен")
+    public void testGetNormalFormOfAWordWithoutCache() {
+        MorphologyService uncached = new MorphologyService(notAWord, russianLuceneMorphology, englishLuceneMorphology, 0);
+
+        assertAll(() -> assertIterableEquals(List.of("тест", "тесто"), uncached.getNormalFormOfAWord("тест")),
+                () -> assertFalse(uncached.getMetrics().containsKey("normalFormCacheHits")));
+    }
+
+    @Test
+    @DisplayName("classify - слово по алфавиту относится к одному словарю")
+    public void testClassify() {
+        assertAll(() -> assertEquals(MorphologyService.Script.CYRILLIC, MorphologyService.classify("санкт-петербург")),
+                () -> assertEquals(MorphologyService.Script.LATIN, MorphologyService.classify("e-mail")),
+                () -> assertEquals(MorphologyService.Script.DIGITS, MorphologyService.classify("2022")),
+                () -> assertEquals(MorphologyService.Script.MIXED, MorphologyService.classify("т34")),
+                () -> assertEquals(MorphologyService.Script.MIXED, MorphologyService.classify("2022-2023")),
+                () -> assertEquals(MorphologyService.Script.MIXED, MorphologyService.classify("Test")),
+                () -> assertEquals(MorphologyService.Script.OTHER, MorphologyService.classify("-")));
+    }
+
+    @Test
+    @DisplayName("getNormalFormOfAWord - латинское слово и число не проверяются по русскому словарю")
+    public void testGetNormalFormOfAWordSkipsOtherDictionary() {
+        LuceneMorphology russian = Mockito.spy(russianLuceneMorphology);
+        LuceneMorphology english = Mockito.spy(englishLuceneMorphology);
+        MorphologyService routed = new MorphologyService(notAWord, russian, english, 0);
+
+        List<String> latin = routed.getNormalFormOfAWord("test");
+        List<String> digits = routed.getNormalFormOfAWord("42");
+        List<String> cyrillic = routed.getNormalFormOfAWord("тест");
+
+        assertAll(() -> assertIterableEquals(List.of("test"), latin),
+                () -> assertIterableEquals(List.of("42"), digits),
+                () -> assertIterableEquals(List.of("тест", "тесто"), cyrillic),
+                () -> Mockito.verify(russian, Mockito.never()).checkString("test"),
+                () -> Mockito.verify(russian, Mockito.never()).checkString("42"),
+                () -> Mockito.verify(english, Mockito.times(1)).checkString(Mockito.anyString()));
+    }
 }
@@ -0,0 +1,71 @@
+package com.github.dmitriims.posikengine.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WordTokenizerTest {
+
+    private static String[] splitWithRegex(String input) {
+        return Arrays.stream(input.replaceAll(WordTokenizer.NOT_A_WORD_PATTERN, " ")
+                        .trim()
+                        .split(" "))
+                .filter(s -> !s.isBlank()).toArray(String[]::new);
+    }
+
+    private static String[] tokenize(String input, boolean ignoreCase) {
+        List<String> words = new ArrayList<>();
+        WordTokenizer.tokenize(input, ignoreCase, (text, start, end) ->
+                words.add(ignoreCase ? WordTokenizer.lowercase(text, start, end) : text.subSequence(start, end).toString()));
+        return words.toArray(new String[0]);
+    }
+
+    @Test
+    @DisplayName("tokenize - дефисы, тире, ё и цифры как в регулярном выражении")
+    public void testSameAsRegex() {
+        String[] inputs = {
+                "", " \n\t ", "кто-то пришёл - и ушёл", "a - b", "a. - .b", "a, - b", "a -b", "a- b", "-",
+                "Ёлка в 2023 году... стоит - зелёная!", "e-mail: test@test.test", "a\u000B-\u000Bb", "...- ...",
+                "слово—тире", "猫 и 狗", "a .- b", "1.5 - 2"
+        };
+        for (String input : inputs) {
+            assertArrayEquals(splitWithRegex(input), tokenize(input, false), input);
+            assertArrayEquals(splitWithRegex(input.toLowerCase(Locale.ROOT)), tokenize(input, true), input);
+        }
+    }
+
+    @Test
+    @DisplayName("tokenize - случайные строки дают те же слова, что и регулярное выражение")
+    public void testRandomStrings() {
+        char[] alphabet = "aZяЁё9-. ,\t\n!猫".toCharArray();
+        Random random = new Random(42);
+        for (int n = 0; n < 5000; n++) {
+            char[] chars = new char[random.nextInt(20)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            String input = new String(chars);
+            assertArrayEquals(splitWithRegex(input), tokenize(input, false), input);
+            assertArrayEquals(splitWithRegex(input.toLowerCase(Locale.ROOT)), tokenize(input, true), input);
+        }
+    }
+
+    @Test
+    @DisplayName("tokenize - слова отдаются границами в исходной строке")
+    public void testOffsets() {
+        List<int[]> offsets = new ArrayList<>();
+        WordTokenizer.tokenize("Мама мыла - раму", (text, start, end) -> offsets.add(new int[]{start, end}));
+
+        assertAll(() -> assertEquals(3, offsets.size()),
+                () -> assertArrayEquals(new int[]{0, 4}, offsets.get(0)),
+                () -> assertArrayEquals(new int[]{5, 9}, offsets.get(1)),
+                () -> assertArrayEquals(new int[]{12, 16}, offsets.get(2)));
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.model.Site;
+import crawlercommons.robots.SimpleRobotRules;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CrawlerContextTest {
+
+    CrawlerContext context;
+
+    @BeforeEach
+    public void init() {
+        Site site = new Site();
+        site.setUrl("http://test.test");
+        context = new CrawlerContext(site, 100, new HashSet<>(), new SimpleRobotRules());
+        context.setLinkPriority(new ShortPathLinkPriority());
+    }
+
+    @Test
+    @DisplayName("frontier - сначала мелкие уровни, внутри уровня короткие адреса")
+    public void testCrawlOrder() {
+        context.addToFrontier("http://test.test/a/b/c", 2);
+        context.addToFrontier("http://test.test/a?page=2", 1);
+        context.addToFrontier("http://test.test/a/b", 1);
+        context.addToFrontier("http://test.test/a", 1);
+        context.addToFrontier("http://test.test", 0);
+
+        assertAll(() -> assertEquals("http://test.test", context.getFrontier().poll().getUrl()),
+                () -> assertEquals("http://test.test/a", context.getFrontier().poll().getUrl()),
+                () -> assertEquals("http://test.test/a?page=2", context.getFrontier().poll().getUrl()),
+                () -> assertEquals("http://test.test/a/b", context.getFrontier().poll().getUrl()),
+                () -> assertEquals("http://test.test/a/b/c", context.getFrontier().poll().getUrl()));
+    }
+
+    @Test
+    @DisplayName("addToFrontier - ссылки глубже лимита и сверх размера очереди не добавляются, посещёнными считаются только слишком глубокие")
+    public void testFrontierLimits() {
+        context.setMaxDepth(2);
+        context.setMaxFrontierSize(2);
+
+        assertAll(() -> assertFalse(context.addToFrontier("http://test.test/deep", 3)),
+                () -> assertTrue(context.addToFrontier("http://test.test/1", 1)),
+                () -> assertTrue(context.addToFrontier("http://test.test/2", 2)),
+                () -> assertFalse(context.addToFrontier("http://test.test/3", 1)),
+                () -> assertEquals(2, context.getPendingLinks().get()),
+                () -> assertTrue(context.getVisitedPages().contains("http://test.test/deep"), "слишком глубокая ссылка больше не проверяется"),
+                () -> assertFalse(context.getVisitedPages().contains("http://test.test/3")),
+                () -> assertTrue(context.isTruncated()));
+    }
+
+    @Test
+    @DisplayName("takeToWork - взятая из очереди ссылка остаётся в сохраняемом состоянии как ссылка в работе")
+    public void testTakenLinkStaysInSnapshot() {
+        context.addToFrontier("http://test.test/a", 1);
+        context.addToFrontier("http://test.test/b", 1);
+
+        FrontierEntry taken = context.takeToWork();
+
+        assertAll(() -> assertEquals("http://test.test/a", taken.getUrl()),
+                () -> assertTrue(context.getLinksInWork().contains(taken)),
+                () -> assertEquals(2, context.snapshotPendingEntries().size()),
+                () -> assertTrue(context.snapshotPendingEntries().contains(taken)));
+    }
+
+    @Test
+    @DisplayName("isOverBudget - лимит байт и времени")
+    public void testOverBudget() {
+        assertFalse(context.isOverBudget());
+
+        context.setMaxBytes(1000);
+        context.addDownloadedBytes(999);
+        assertFalse(context.isOverBudget());
+        context.addDownloadedBytes(1);
+        assertTrue(context.isOverBudget());
+
+        context.setMaxBytes(0);
+        context.setDeadline(System.currentTimeMillis() - 1);
+        assertTrue(context.isOverBudget());
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.HttpClientSettings;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CrawlerHttpClientTest {
+
+    MockWebServer server;
+    CrawlerHttpClient client;
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new CrawlerHttpClient("TestBot", new HttpClientSettings());
+    }
+
+    @AfterEach
+    public void shutdown() throws IOException {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    @DisplayName("fetch - соединение переиспользуется между запросами")
+    public void testConnectionReuse() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("<html><body><a href=\"/" + i + "\">" + i + "</a></body></html>"));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            try (FetchResponse response = client.fetch(server.url("/" + i).toString(), Map.of(), 0)) {
+                response.parse();
+            }
+        }
+
+        Map<String, Number> metrics = client.getMetrics();
+        assertAll(() -> assertEquals(3L, metrics.get("requests")),
+                () -> assertEquals(1L, metrics.get("connectionsOpened")),
+                () -> assertEquals(3L, metrics.get("connectionsAcquired")),
+                () -> assertEquals(2.0 / 3.0, metrics.get("connectionReuseRatio").doubleValue(), 1e-9));
+    }
+
+    @Test
+    @DisplayName("fetch - заголовки запроса и распаковка gzip")
+    public void testHeadersAndGzip() throws IOException, InterruptedException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write("<html><head><title>Тест</title></head></html>".getBytes(StandardCharsets.UTF_8));
+        }
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/html; charset=utf-8")
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(compressed.toByteArray())));
+
+        Document document;
+        try (FetchResponse response = client.fetch(server.url("/").toString(), Map.of("If-None-Match", "\"v1\""), 0)) {
+            document = response.parse();
+        }
+        RecordedRequest request = server.takeRequest();
+
+        assertAll(() -> assertEquals("Тест", document.title()),
+                () -> assertEquals("TestBot", request.getHeader("User-Agent")),
+                () -> assertEquals("\"v1\"", request.getHeader("If-None-Match")),
+                () -> assertTrue(request.getHeader("Accept-Encoding").contains("gzip")),
+                () -> assertTrue(request.getHeader("Accept-Encoding").contains("br")));
+    }
+
+    @Test
+    @DisplayName("bodyAsBytes - тело обрезается до допустимого размера")
+    public void testMaxBodySize() throws IOException {
+        server.enqueue(new MockResponse().setBody("0123456789"));
+
+        try (FetchResponse response = client.fetch(server.url("/").toString(), Map.of(), 4)) {
+            assertArrayEquals("0123".getBytes(StandardCharsets.UTF_8), response.bodyAsBytes());
+        }
+    }
+}
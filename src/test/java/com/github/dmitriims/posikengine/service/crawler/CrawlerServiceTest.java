@@ -5,11 +5,11 @@ import com.github.dmitriims.posikengine.service.CommonContext;
 import com.github.dmitriims.posikengine.service.DatabaseService;
 import com.github.dmitriims.posikengine.service.LemmaUtils;
 import com.github.dmitriims.posikengine.service.MorphologyService;
+import com.github.dmitriims.posikengine.service.indexing.PageWriter;
 import crawlercommons.robots.BaseRobotRules;
 import crawlercommons.robots.SimpleRobotRules;
 import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
 import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
-import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.junit.jupiter.api.*;
@@ -24,7 +24,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
@@ -45,10 +44,10 @@ public class CrawlerServiceTest {
     BaseRobotRules rules;
 
     @Mock
-    Connection.Response response;
+    FetchResponse response;
 
     @Mock
-    DatabaseService databaseService;
+    PageWriter pageWriter;
 
     Site site;
     CrawlerService crawler;
@@ -59,6 +58,7 @@ public class CrawlerServiceTest {
         site = new Site();
         site.setUrl("http://test.test");
         Mockito.when(crawlerContext.getSite()).thenReturn(site);
+        Mockito.lenient().when(crawlerContext.getVisitedPages()).thenReturn(new UrlFingerprintSet());
         crawler = new CrawlerService(crawlerContext, commonContext);
     }
 
@@ -192,9 +192,7 @@ public class CrawlerServiceTest {
     @Test
     @DisplayName("filterLinks - не добавлять - есть в посещённых")
     public void testFilterLinksInVisited() {
-        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new HashSet<>() {{
-            add("http://test.test/1");
-        }});
+        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visitedOf("http://test.test/1"));
 
         Set<String> expected = new HashSet<>();
         List<String> input = new ArrayList<>(){{
@@ -208,9 +206,7 @@ public class CrawlerServiceTest {
     @Test
     @DisplayName("filterLinks - не добавлять - ссылка со слешем, но в посещённых без слеша")
     public void testFilterLinksSlashedInputButNoSlashInVisited() {
-        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new HashSet<>() {{
-            add("http://test.test/1");
-        }});
+        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visitedOf("http://test.test/1"));
 
         Set<String> expected = new HashSet<>();
         List<String> input = new ArrayList<>(){{
@@ -224,9 +220,7 @@ public class CrawlerServiceTest {
     @Test
     @DisplayName("filterLinks - не добавлять - ссылка без слеша, но в посещённых со слешем")
     public void testFilterLinksNonslashedInputButSlashInVisited() {
-        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new HashSet<>() {{
-            add("http://test.test/1/");
-        }});
+        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visitedOf("http://test.test/1/"));
 
         Set<String> expected = new HashSet<>();
         List<String> input = new ArrayList<>(){{
@@ -240,7 +234,7 @@ public class CrawlerServiceTest {
     @Test
     @DisplayName("filterLinks - не добавлять - не внутренняя")
     public void testFilterLinksNotInternal() {
-        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new HashSet<>());
+        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new UrlFingerprintSet());
         Set<String> expected = new HashSet<>();
 
         List<String> input = new ArrayList<>(){{
@@ -254,7 +248,7 @@ public class CrawlerServiceTest {
     @Test
     @DisplayName("filterLinks - не добавлять - содержит запрещёнку")
     public void testFilterLinksContainsForbidden() {
-        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new HashSet<>());
+        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new UrlFingerprintSet());
         Mockito.when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(new ArrayList<>(){{add("1");}});
 
         Set<String> expected = new HashSet<>();
@@ -271,7 +265,7 @@ public class CrawlerServiceTest {
     public void testFilterLinksBlockedInRobots() {
         Mockito.when(rules.isAllowed("http://test.test/1")).thenReturn(false);
         Mockito.when(crawlerContext.getRobotsRules()).thenReturn(rules);
-        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new HashSet<>());
+        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new UrlFingerprintSet());
 
         Set<String> expected = new HashSet<>();
         List<String> input = new ArrayList<>(){{
@@ -286,7 +280,7 @@ public class CrawlerServiceTest {
     @DisplayName("filterLinks - не добавлять в отфильтрованные - добавить в посещённые")
     public void testFilterLinksAddToVisited() {
 
-        CrawlerContext specificCrawlerContext = new CrawlerContext(site, null, 1, new HashSet<>(), new SimpleRobotRules());
+        CrawlerContext specificCrawlerContext = new CrawlerContext(site, 1, new HashSet<>(), new SimpleRobotRules());
         CrawlerService crawlerService = new CrawlerService(specificCrawlerContext, commonContext);
         Mockito.when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(new ArrayList<>() {{
             add("1");
@@ -296,15 +290,12 @@ public class CrawlerServiceTest {
         List<String> input = new ArrayList<>(){{
             add("http://test.test/1");
         }};
-        Set<String> expected = new HashSet<>(){{
-            add("http://test.test");
-            add("http://test.test/1");
-        }};
-
         crawlerService.filterLinks(input);
-        Set<String> actual = specificCrawlerContext.getVisitedPages();
+        UrlFingerprintSet actual = specificCrawlerContext.getVisitedPages();
 
-        assertIterableEquals(expected, actual);
+        assertAll(() -> assertEquals(2, actual.size()),
+                () -> assertTrue(actual.contains("http://test.test")),
+                () -> assertTrue(actual.contains("http://test.test/1")));
     }
 
     @Test
@@ -312,7 +303,7 @@ public class CrawlerServiceTest {
     public void testFilterLinksAddToFiltered() {
         Mockito.when(rules.isAllowed("http://test.test/1")).thenReturn(true);
         Mockito.when(crawlerContext.getRobotsRules()).thenReturn(rules);
-        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new HashSet<>());
+        Mockito.when(crawlerContext.getVisitedPages()).thenReturn(new UrlFingerprintSet());
 
         Set<String> expected = new HashSet<>(){{
             add("http://test.test/1");
@@ -329,38 +320,37 @@ public class CrawlerServiceTest {
     @DisplayName("filterLinks - добавить в отфильтрованные - не добавлять в посещённые на этом этапе")
     public void testFilterLinksAddToFilteredDontAddToVisited() {
 
-        CrawlerContext specificCrawlerContext = new CrawlerContext(site, null, 1, new HashSet<>(), new SimpleRobotRules());
+        CrawlerContext specificCrawlerContext = new CrawlerContext(site, 1, new HashSet<>(), new SimpleRobotRules());
         CrawlerService crawlerService = new CrawlerService(specificCrawlerContext, commonContext);
 
         List<String> input = new ArrayList<>(){{
             add("http://test.test/1");
         }};
-        Set<String> expected = new HashSet<>(){{
-            add("http://test.test");
-        }};
-
         crawlerService.filterLinks(input);
-        Set<String> actual = specificCrawlerContext.getVisitedPages();
+        UrlFingerprintSet actual = specificCrawlerContext.getVisitedPages();
 
-        assertIterableEquals(expected, actual);
+        assertAll(() -> assertEquals(1, actual.size()),
+                () -> assertTrue(actual.contains("http://test.test")),
+                () -> assertFalse(actual.contains("http://test.test/1")));
     }
 
     @Test
     @DisplayName("getPageFromResponse - получить страницу из response")
     public void testGetPageFromResponse() throws IOException {
         String htmlFileAsString = new String(Files.readAllBytes(Path.of("src/test/resources/testPageCreation.html")));
+        Document document = Jsoup.parse(htmlFileAsString);
         Mockito.when(response.statusCode()).thenReturn(200);
-        Mockito.when(response.body()).thenReturn(htmlFileAsString);
 
         Page expected = new Page();
         expected.setSite(site);
         expected.setPath("/");
         expected.setCode(200);
-        expected.setContent(htmlFileAsString);
+        expected.setContent(document.outerHtml());
 
-        Page actual = crawler.getPageFromResponse(response);
+        Page actual = crawler.getPageFromResponse(response, document);
 
-        assertEquals(expected, actual);
+        assertAll(() -> assertEquals(expected, actual),
+                () -> assertEquals(expected.getContent(), actual.getContent()));
     }
 
     @Nested
@@ -369,9 +359,15 @@ public class CrawlerServiceTest {
         String htmlFileAsString;
         CrawlerService crawlerSpy;
         List<String> forbidden;
-        Set<String> visited;
+        UrlFingerprintSet visited;
         Document document;
 
+        @Mock
+        DatabaseService databaseService;
+
+        @Mock
+        PageAnalyzer analyzer;
+
         @BeforeEach
         public void init() throws IOException {
             htmlFileAsString = new String(Files.readAllBytes(Path.of("src/test/resources/testPageProcessing.html")));
@@ -382,9 +378,7 @@ public class CrawlerServiceTest {
                 add("mailto:");
             }};
 
-            visited = new HashSet<>(){{
-                add("http://test.test/test1");
-            }};
+            visited = visitedOf("http://test.test/test1");
 
             document = Jsoup.parse(htmlFileAsString);
             document.setBaseUri("http://test.test/");
@@ -395,14 +389,13 @@ public class CrawlerServiceTest {
         public void testProcessOnePageWithDifferentLinks() throws IOException {
 
             Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visited);
-            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString());
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString(), any());
             Mockito.when(response.contentType()).thenReturn("text/html");
             Mockito.when(response.statusCode()).thenReturn(200);
-            Mockito.when(response.body()).thenReturn(htmlFileAsString);
             Mockito.when(response.parse()).thenReturn(document);
             Mockito.when(commonContext.isIndexing()).thenReturn(true);
             Mockito.when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(100500));
-            Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+            Mockito.when(commonContext.getPageWriter()).thenReturn(pageWriter);
             Mockito.when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(forbidden);
             Mockito.when(crawlerContext.getRobotsRules()).thenReturn(rules);
             Mockito.when(rules.isAllowed(anyString())).thenReturn(true);
@@ -415,8 +408,9 @@ public class CrawlerServiceTest {
 
             Set<String> actual = crawlerSpy.processOnePage("http://test.test/test1");
 
-            assertAll("метод должен вызвать filterLinks и ссылки должны правильно отфильтроваться",
+            assertAll("метод должен вызвать filterLinks, отдать страницу на запись и ссылки должны правильно отфильтроваться",
                     () -> verify(crawlerSpy, times(1)).filterLinks(anyList()),
+                    () -> verify(pageWriter, times(1)).submit(any(), anyList()),
                     () -> assertIterableEquals(expected, actual));
         }
 
@@ -424,7 +418,7 @@ public class CrawlerServiceTest {
         @DisplayName("processOnePage - mime type не какой-либо text")
         public void testProcessOnePageWithIncorrectMimeType() throws IOException {
 
-            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString());
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString(), any());
             Mockito.when(response.contentType()).thenReturn("image/gif");
 
             Set<String> expected = new HashSet<>();
@@ -432,18 +426,34 @@ public class CrawlerServiceTest {
             Set<String> actual = crawlerSpy.processOnePage("http://test.test/test1");
 
             assertAll("Дальше проверки типа ответа метод выполняться не должен, набор ссылок должен быть пуст",
-                    () -> verify(crawlerSpy, never()).getPageFromResponse(any()),
+                    () -> verify(crawlerSpy, never()).getPageFromResponse(any(), any()),
                     () -> assertIterableEquals(expected, actual));
         }
 
+        @Test
+        @DisplayName("processOnePage - Content-Length больше допустимого - тело не читается")
+        public void testProcessOnePageTooLarge() throws IOException {
+
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString(), any());
+            Mockito.when(response.contentType()).thenReturn("text/html");
+            Mockito.when(response.header("Content-Length")).thenReturn("1048576");
+            Mockito.when(crawlerContext.getMaxBodySize()).thenReturn(1024);
+
+            Set<String> actual = crawlerSpy.processOnePage("http://test.test/test1");
+
+            assertAll("Страница не должна разбираться, набор ссылок должен быть пуст",
+                    () -> verify(response, never()).parse(),
+                    () -> verify(commonContext, never()).getPageWriter(),
+                    () -> assertTrue(actual.isEmpty()));
+        }
+
         @Test
         @DisplayName("processOnePage - больше не индексируем - горшочек не вари")
         public void testProcessOnePageNotIndexing() throws IOException {
 
-            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString());
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString(), any());
             Mockito.when(response.contentType()).thenReturn("text/html");
             Mockito.when(response.statusCode()).thenReturn(200);
-            Mockito.when(response.body()).thenReturn(htmlFileAsString);
             Mockito.when(response.parse()).thenReturn(document);
             Mockito.when(commonContext.isIndexing()).thenReturn(false);
 
@@ -452,7 +462,7 @@ public class CrawlerServiceTest {
             Set<String> actual = crawlerSpy.processOnePage("http://test.test/test1");
 
             assertAll("Не должно происходить обращения к бд, набор ссылок должен быть пуст",
-                    () -> verify(commonContext, never()).getDatabaseService(),
+                    () -> verify(commonContext, never()).getPageWriter(),
                     () -> assertIterableEquals(expected, actual));
         }
 
@@ -460,10 +470,9 @@ public class CrawlerServiceTest {
         @DisplayName("processOnePage - счётчик страниц кончился - горшочек не вари")
         public void testProcessOnePagePagesToIndexCounterIs0() throws IOException {
 
-            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString());
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString(), any());
             Mockito.when(response.contentType()).thenReturn("text/html");
             Mockito.when(response.statusCode()).thenReturn(200);
-            Mockito.when(response.body()).thenReturn(htmlFileAsString);
             Mockito.when(response.parse()).thenReturn(document);
             Mockito.when(commonContext.isIndexing()).thenReturn(true);
             Mockito.when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(0));
@@ -473,19 +482,183 @@ public class CrawlerServiceTest {
             Set<String> actual = crawlerSpy.processOnePage("http://test.test/test1");
 
             assertAll("Не должно происходить обращения к бд, набор ссылок должен быть пуст",
-                    () -> verify(commonContext, never()).getDatabaseService(),
+                    () -> verify(commonContext, never()).getPageWriter(),
                     () -> assertIterableEquals(expected, actual));
         }
 
+        @Test
+        @DisplayName("processOnePage - сервер ответил 304 - ссылки берутся из сохранённой страницы")
+        public void testProcessOnePageNotModified() throws IOException {
+            KnownPage knownPage = new KnownPage(7L, "/test1", 200, "\"v1\"", null, 1L, null);
+
+            Mockito.when(crawlerContext.getKnownPages()).thenReturn(new HashMap<>(Map.of("/test1", knownPage)));
+            Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visited);
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink("http://test.test/test1", knownPage);
+            Mockito.when(response.statusCode()).thenReturn(304);
+            Mockito.when(commonContext.isIndexing()).thenReturn(true);
+            Mockito.when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(100500));
+            Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+            Mockito.when(databaseService.getPageContent(7L)).thenReturn(htmlFileAsString);
+            Mockito.when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(forbidden);
+            Mockito.when(crawlerContext.getRobotsRules()).thenReturn(rules);
+            Mockito.when(rules.isAllowed(anyString())).thenReturn(true);
+
+            Set<String> expected = new HashSet<>(){{
+                add("http://test.test/correct-internal-link/");
+                add("http://test.test/тоже-норм-ссылка");
+                add("http://test.test/aiGeneratedCat.jpeg");
+            }};
+
+            Set<String> actual = crawlerSpy.processOnePage("http://test.test/test1");
+
+            assertAll("Страница не разбирается и не пишется заново, но отмечается как существующая",
+                    () -> verify(databaseService, times(1)).markPageAsUnchanged(any(), eq(knownPage), isNull(), isNull(), isNull()),
+                    () -> verify(commonContext, never()).getPageWriter(),
+                    () -> verify(response, never()).parse(),
+                    () -> assertIterableEquals(expected, actual));
+        }
+
+        @Test
+        @DisplayName("processOnePage - lastmod в карте сайта не изменился - страница не загружается")
+        public void testProcessOnePageSitemapUnchanged() throws IOException {
+            KnownPage knownPage = new KnownPage(7L, "/test1", 200, "\"v1\"", null, 1L, 5L);
+
+            Mockito.when(crawlerContext.getKnownPages()).thenReturn(new HashMap<>(Map.of("/test1", knownPage)));
+            Mockito.when(crawlerContext.getSitemapLastmods()).thenReturn(new HashMap<>(Map.of("/test1", 5L)));
+            Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visited);
+            Mockito.when(commonContext.isIndexing()).thenReturn(true);
+            Mockito.when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(100500));
+            Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+            Mockito.when(databaseService.getPageContent(7L)).thenReturn(htmlFileAsString);
+            Mockito.when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(forbidden);
+            Mockito.when(crawlerContext.getRobotsRules()).thenReturn(rules);
+            Mockito.when(rules.isAllowed(anyString())).thenReturn(true);
+
+            Set<String> actual = crawlerSpy.processOnePage("http://test.test/test1");
+
+            assertAll("Страница не запрашивается у сервера, ссылки берутся из сохранённой страницы",
+                    () -> verify(crawlerSpy, never()).getResponseFromLink(anyString(), any()),
+                    () -> verify(databaseService, times(1)).markPageAsUnchanged(any(), eq(knownPage), eq("\"v1\""), isNull(), eq(5L)),
+                    () -> verify(commonContext, never()).getPageWriter(),
+                    () -> assertEquals(3, actual.size()));
+        }
+
+        @Test
+        @DisplayName("processOnePage - содержимое не изменилось - страница не пишется заново")
+        public void testProcessOnePageSameContentHash() throws IOException {
+            KnownPage knownPage = new KnownPage(7L, "/test1", 200, null, null, Fingerprints.of(document.outerHtml()), null);
+
+            Mockito.when(crawlerContext.getKnownPages()).thenReturn(new HashMap<>(Map.of("/test1", knownPage)));
+            Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visited);
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink("http://test.test/test1", knownPage);
+            Mockito.when(response.contentType()).thenReturn("text/html");
+            Mockito.when(response.statusCode()).thenReturn(200);
+            Mockito.when(response.parse()).thenReturn(document);
+            Mockito.when(commonContext.isIndexing()).thenReturn(true);
+            Mockito.when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(100500));
+            Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+            Mockito.when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(forbidden);
+            Mockito.when(crawlerContext.getRobotsRules()).thenReturn(rules);
+            Mockito.when(rules.isAllowed(anyString())).thenReturn(true);
+
+            Set<String> actual = crawlerSpy.processOnePage("http://test.test/test1");
+
+            assertAll("Страница не лемматизируется и не пишется заново, ссылки берутся из скачанного документа",
+                    () -> verify(databaseService, times(1)).markPageAsUnchanged(any(), eq(knownPage), isNull(), isNull(), isNull()),
+                    () -> verify(databaseService, never()).getPageContent(any()),
+                    () -> verify(commonContext, never()).getPageWriter(),
+                    () -> verify(commonContext, never()).getMorphologyService(),
+                    () -> assertEquals(3, actual.size()));
+        }
+
+        @Test
+        @DisplayName("fetch - тело дочитывается в память, страницу разбирает анализатор и ссылки уходят в очередь сайта")
+        public void testFetchHandsOverToAnalyzer() throws IOException {
+            AtomicInteger done = new AtomicInteger();
+
+            Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visited);
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString(), any());
+            Mockito.when(response.contentType()).thenReturn("text/html");
+            Mockito.when(response.statusCode()).thenReturn(200);
+            Mockito.when(response.parse()).thenReturn(document);
+            Mockito.when(commonContext.isIndexing()).thenReturn(true);
+            Mockito.when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(100500));
+            Mockito.when(commonContext.getPageWriter()).thenReturn(pageWriter);
+            Mockito.when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(forbidden);
+            Mockito.when(crawlerContext.getRobotsRules()).thenReturn(rules);
+            Mockito.when(rules.isAllowed(anyString())).thenReturn(true);
+            Mockito.when(analyzer.submit(any())).thenAnswer(invocation -> {
+                assertEquals(0, done.get(), "страница не должна считаться обработанной до разбора");
+                invocation.<Runnable>getArgument(0).run();
+                return true;
+            });
+
+            crawlerSpy.fetch(analyzer, done::incrementAndGet);
+
+            assertAll("тело должно быть прочитано до передачи анализатору, а страница завершена один раз",
+                    () -> verify(response, times(1)).buffer(),
+                    () -> verify(pageWriter, times(1)).submit(any(), anyList()),
+                    () -> verify(crawlerContext, times(3)).addToFrontier(anyString(), eq(1)),
+                    () -> assertEquals(1, done.get()));
+        }
+
+        @Test
+        @DisplayName("fetch - lastmod в карте сайта не изменился - сохранённая страница читается и разбирается анализатором")
+        public void testFetchSitemapUnchangedHandsOverToAnalyzer() {
+            AtomicInteger done = new AtomicInteger();
+            KnownPage knownPage = new KnownPage(7L, "/", 200, null, null, 1L, 5L);
+
+            Mockito.when(crawlerContext.getKnownPages()).thenReturn(new HashMap<>(Map.of("/", knownPage)));
+            Mockito.when(crawlerContext.getSitemapLastmods()).thenReturn(new HashMap<>(Map.of("/", 5L)));
+            Mockito.when(crawlerContext.getVisitedPages()).thenReturn(visited);
+            Mockito.when(commonContext.isIndexing()).thenReturn(true);
+            Mockito.when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(100500));
+            Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+            Mockito.when(databaseService.getPageContent(7L)).thenReturn(htmlFileAsString);
+            Mockito.when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(forbidden);
+            Mockito.when(crawlerContext.getRobotsRules()).thenReturn(rules);
+            Mockito.when(rules.isAllowed(anyString())).thenReturn(true);
+            Mockito.when(analyzer.submit(any())).thenAnswer(invocation -> {
+                verify(databaseService, never()).getPageContent(any());
+                invocation.<Runnable>getArgument(0).run();
+                return true;
+            });
+
+            crawlerSpy.fetch(analyzer, done::incrementAndGet);
+
+            assertAll("страница не загружается, а содержимое из базы разбирается не на потоке загрузки",
+                    () -> verify(crawlerSpy, never()).getResponseFromLink(anyString(), any()),
+                    () -> verify(databaseService, times(1)).getPageContent(7L),
+                    () -> verify(crawlerContext, times(3)).addToFrontier(anyString(), eq(1)),
+                    () -> assertEquals(1, done.get()));
+        }
+
+        @Test
+        @DisplayName("fetch - неподходящий ответ - анализатор не нужен, страница завершается сразу")
+        public void testFetchUnacceptableResponse() throws IOException {
+            AtomicInteger done = new AtomicInteger();
+
+            Mockito.doReturn(response).when(crawlerSpy).getResponseFromLink(anyString(), any());
+            Mockito.when(response.contentType()).thenReturn("image/gif");
+            Mockito.when(commonContext.isIndexing()).thenReturn(true);
+            Mockito.when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(100500));
+
+            crawlerSpy.fetch(analyzer, done::incrementAndGet);
+
+            assertAll("тело не читается, анализатор не вызывается",
+                    () -> verify(response, never()).buffer(),
+                    () -> verify(analyzer, never()).submit(any()),
+                    () -> verify(response, times(1)).close(),
+                    () -> assertEquals(1, done.get()));
+        }
+
     }
 
     @Nested
-    @DisplayName("Проверка compute")
-    class ComputeTest {
+    @DisplayName("Проверка run")
+    class RunTest {
         CrawlerService crawlerSpy;
 
-        @Mock
-        ForkJoinPool pool;
         @Mock
         Document document;
         @Mock
@@ -504,39 +677,57 @@ public class CrawlerServiceTest {
         }
 
         @Test
-        @DisplayName("compute - не индексируется - выход сразу")
+        @DisplayName("run - не индексируется - выход сразу")
         public void testComputeNotIndexing() {
             when(commonContext.isIndexing()).thenReturn(false);
 
-            crawlerSpy.compute();
+            crawlerSpy.run();
 
-            verify(pool, never()).isShutdown();
+            verify(crawlerContext, never()).isStopped();
         }
 
         @Test
-        @DisplayName("compute - индексируется но остановлен - выход сразу")
+        @DisplayName("run - индексируется но остановлен - выход сразу")
         public void testComputeIsShutdown() {
             when(commonContext.isIndexing()).thenReturn(true);
-            when(crawlerContext.getThisPool()).thenReturn(pool);
-            when(pool.isShutdown()).thenReturn(true);
+            when(crawlerContext.isStopped()).thenReturn(true);
 
-            crawlerSpy.compute();
+            crawlerSpy.run();
 
             verify(crawlerContext, never()).getNumberOfPagesToCrawl();
         }
 
         @Test
-        @DisplayName("compute - счётчик закончился - выход сразу")
+        @DisplayName("run - счётчик закончился - выход сразу")
         public void testComputeCounterIs0() {
             when(commonContext.isIndexing()).thenReturn(true);
-            when(crawlerContext.getThisPool()).thenReturn(pool);
-            when(pool.isShutdown()).thenReturn(false);
+            when(crawlerContext.isStopped()).thenReturn(false);
             when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(0));
 
-            crawlerSpy.compute();
+            crawlerSpy.run();
 
             verify(crawlerSpy, never()).isSiteIndexedOrInterrupted(any());
         }
+
+        @Test
+        @DisplayName("run - исчерпан лимит байт или времени - выход сразу")
+        public void testComputeOverBudget() throws IOException {
+            when(commonContext.isIndexing()).thenReturn(true);
+            when(crawlerContext.isStopped()).thenReturn(false);
+            when(crawlerContext.getNumberOfPagesToCrawl()).thenReturn(new AtomicInteger(100500));
+            when(crawlerContext.isOverBudget()).thenReturn(true);
+
+            crawlerSpy.run();
+
+            verify(crawlerSpy, never()).processOnePage(anyString());
+        }
     }
 
+    private static UrlFingerprintSet visitedOf(String... urls) {
+        UrlFingerprintSet visited = new UrlFingerprintSet();
+        for (String url : urls) {
+            visited.add(url);
+        }
+        return visited;
+    }
 }
@@ -0,0 +1,85 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.model.Site;
+import crawlercommons.robots.SimpleRobotRules;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrontierCheckpointerTest {
+
+    @TempDir
+    Path directory;
+
+    FrontierCheckpointer checkpointer;
+    Site site;
+
+    @BeforeEach
+    public void init() {
+        IndexingSettings settings = new IndexingSettings();
+        settings.setCheckpointDir(directory.toString());
+        settings.setCheckpointInterval(0);
+        checkpointer = new FrontierCheckpointer(settings);
+        site = new Site();
+        site.setId(1L);
+        site.setUrl("http://test.test");
+    }
+
+    private CrawlerContext newContext(Site site) {
+        return new CrawlerContext(site, 100, new HashSet<>(), new SimpleRobotRules());
+    }
+
+    @Test
+    @DisplayName("restore - восстанавливаются очередь, ссылки в работе, посещённые адреса, лимит, поколение и даты из карты сайта")
+    public void testSaveAndRestore() {
+        CrawlerContext context = newContext(site);
+        context.addToFrontier(new FrontierEntry("http://test.test/1", 1, 0));
+        context.addToFrontier(new FrontierEntry("http://test.test/2", 2, 0.5));
+        context.getVisitedPages().add("http://test.test/old");
+        context.getLinksInWork().add(new FrontierEntry("http://test.test/work", 1, 0));
+        context.getNumberOfPagesToCrawl().set(42);
+        context.setGeneration(3);
+        context.setNewGeneration(true);
+        context.getSitemapLastmods().put("/1", 5L);
+
+        checkpointer.save(context);
+        CrawlerContext restored = newContext(site);
+
+        assertAll(() -> assertTrue(checkpointer.exists(site)),
+                () -> assertTrue(checkpointer.restore(restored)),
+                () -> assertEquals(42, restored.getNumberOfPagesToCrawl().get()),
+                () -> assertEquals(3, restored.getGeneration()),
+                () -> assertTrue(restored.isNewGeneration()),
+                () -> assertEquals(Map.of("/1", 5L), restored.getSitemapLastmods()),
+                () -> assertEquals(3, restored.getFrontier().size()),
+                () -> assertEquals(3, restored.getPendingLinks().get()),
+                () -> assertTrue(restored.getFrontier().contains(new FrontierEntry("http://test.test/work", 1, 0))),
+                () -> assertTrue(restored.getFrontier().contains(new FrontierEntry("http://test.test/2", 2, 0.5))),
+                () -> assertTrue(restored.getVisitedPages().contains("http://test.test/old")),
+                () -> assertTrue(restored.getVisitedPages().contains("http://test.test/1")));
+    }
+
+    @Test
+    @DisplayName("restore - нет файла или файл другого сайта")
+    public void testRestoreMissingOrForeign() {
+        Site other = new Site();
+        other.setId(1L);
+        other.setUrl("http://other.test");
+        checkpointer.save(newContext(site));
+
+        assertAll(() -> assertFalse(checkpointer.restore(newContext(other))),
+                () -> {
+                    checkpointer.delete(site);
+                    assertFalse(checkpointer.exists(site));
+                    assertFalse(checkpointer.restore(newContext(site)));
+                });
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageAnalyzerTest {
+
+    PageAnalyzer analyzer;
+
+    @AfterEach
+    public void shutdown() {
+        if (analyzer != null) {
+            analyzer.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("submit - задачи выполняются потоками анализатора и попадают в метрики")
+    public void testSubmittedTasksAreAnalyzed() throws InterruptedException {
+        analyzer = new PageAnalyzer(settings(2, 10));
+        CountDownLatch done = new CountDownLatch(5);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(analyzer.submit(done::countDown));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS), "все задачи должны выполниться");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (analyzer.getMetrics().get("pagesAnalyzed").longValue() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertAll(() -> assertEquals(5L, analyzer.getMetrics().get("pagesAnalyzed")),
+                () -> assertEquals(0, analyzer.getMetrics().get("queueSize")),
+                () -> assertEquals(2, analyzer.getMetrics().get("threads")));
+    }
+
+    @Test
+    @DisplayName("submit - без потоков анализатора задача не принимается")
+    public void testDisabledAnalyzerRejectsTasks() {
+        analyzer = new PageAnalyzer(settings(0, 10));
+
+        assertAll(() -> assertFalse(analyzer.isEnabled()),
+                () -> assertFalse(analyzer.submit(() -> fail("задача не должна выполняться"))));
+    }
+
+    @Test
+    @DisplayName("submit - полная очередь задерживает загрузку, пока анализатор не освободится")
+    public void testFullQueueBlocksSubmitter() throws InterruptedException {
+        analyzer = new PageAnalyzer(settings(1, 1));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        analyzer.submit(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        analyzer.submit(() -> {});
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread fetcher = new Thread(() -> {
+            analyzer.submit(() -> {});
+            submitted.countDown();
+        });
+        fetcher.start();
+
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS), "при полной очереди загрузка должна ждать");
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS), "после освобождения места задача должна быть принята");
+    }
+
+    private IndexingSettings settings(int threads, int capacity) {
+        IndexingSettings settings = new IndexingSettings();
+        settings.setAnalyzerThreads(threads);
+        settings.setAnalyzerQueueCapacity(capacity);
+        return settings;
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.model.Site;
+import com.github.dmitriims.posikengine.service.CommonContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PolitenessSchedulerTest {
+
+    @Mock
+    CommonContext commonContext;
+    @Mock
+    CrawlerHttpClient httpClient;
+
+    IndexingSettings settings;
+    PolitenessScheduler scheduler;
+
+    @BeforeEach
+    public void init() {
+        settings = new IndexingSettings();
+        settings.setAnalyzerThreads(0);
+        /* планировщик вызывается из теста, сам по себе он сработать не успевает */
+        settings.setSchedulerTick(TimeUnit.HOURS.toMillis(1));
+        scheduler = new PolitenessScheduler(commonContext, settings, new PageAnalyzer(settings));
+        Mockito.when(commonContext.isIndexing()).thenReturn(true);
+        Mockito.when(commonContext.getHttpClient()).thenReturn(httpClient);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    @DisplayName("dispatch - к хосту идёт один запрос за раз, даже если сайту разрешено больше рабочих")
+    public void testOneFetchInFlightPerHost() throws IOException, InterruptedException {
+        CountDownLatch responded = new CountDownLatch(1);
+        AtomicInteger fetches = new AtomicInteger();
+        Mockito.when(httpClient.fetch(anyString(), anyMap(), anyLong())).thenAnswer(invocation -> {
+            fetches.incrementAndGet();
+            responded.await(5, TimeUnit.SECONDS);
+            return null;
+        });
+        CrawlerContext context = context("http://test.test", 0, 4);
+        scheduler.register(context);
+
+        scheduler.dispatch();
+        scheduler.dispatch();
+        assertEquals(2, context.getFrontier().size(), "пока первая страница загружается, хост занят");
+
+        responded.countDown();
+        awaitNoLinksInWork(context);
+        awaitDispatched(context, 1);
+
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    @DisplayName("dispatch - max-fetches-per-host не даёт сайту больше одновременных запросов, чем ему разрешено рабочих")
+    public void testFetchesPerHostLimitedBySiteThreads() throws IOException, InterruptedException {
+        CountDownLatch responded = new CountDownLatch(1);
+        Mockito.when(httpClient.fetch(anyString(), anyMap(), anyLong())).thenAnswer(invocation -> {
+            responded.await(5, TimeUnit.SECONDS);
+            return null;
+        });
+        withMaxFetchesPerHost(3);
+        CrawlerContext context = context("http://test.test", 0, 1);
+        scheduler.register(context);
+
+        scheduler.dispatch();
+        scheduler.dispatch();
+        scheduler.dispatch();
+        assertEquals(2, context.getFrontier().size(), "сайту с одним рабочим достаётся один запрос за раз");
+
+        responded.countDown();
+        awaitNoLinksInWork(context);
+    }
+
+    @Test
+    @DisplayName("dispatch - сайт с весом больше 1 загружает одновременно столько страниц, сколько разрешают max-fetches-per-host и max-threads")
+    public void testWeightedSiteConcurrency() throws IOException, InterruptedException {
+        CountDownLatch responded = new CountDownLatch(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Mockito.when(httpClient.fetch(anyString(), anyMap(), anyLong())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            responded.await(5, TimeUnit.SECONDS);
+            inFlight.decrementAndGet();
+            return null;
+        });
+        withMaxFetchesPerHost(2);
+        CrawlerContext context = context("http://test.test", 0, 4);
+        context.setWeight(2);
+        scheduler.register(context);
+
+        for (int i = 0; i < 3; i++) {
+            scheduler.dispatch();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (inFlight.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, context.getFrontier().size(), "хосту разрешено только два запроса сразу");
+
+        responded.countDown();
+        awaitNoLinksInWork(context);
+        awaitDispatched(context, 0);
+        awaitNoLinksInWork(context);
+
+        assertEquals(2, maxInFlight.get());
+    }
+
+    @Test
+    @DisplayName("dispatch - задержка отсчитывается от окончания загрузки, а не от её начала")
+    public void testDelayCountsFromCompletion() throws IOException, InterruptedException {
+        Mockito.when(httpClient.fetch(anyString(), anyMap(), anyLong())).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                /* следующую загрузку прерывает остановка планировщика в конце теста */
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        CrawlerContext context = context("http://test.test", 300, 4);
+        scheduler.register(context);
+
+        scheduler.dispatch();
+        awaitNoLinksInWork(context);
+        long completed = System.currentTimeMillis();
+        awaitDispatched(context, 1);
+
+        assertTrue(System.currentTimeMillis() - completed >= 250,
+                "следующая страница не должна загружаться раньше задержки после окончания предыдущей");
+    }
+
+    @Test
+    @DisplayName("dispatch - время хоста забывается, когда обход сайта закончен")
+    public void testFinishedSiteHostIsForgotten() throws IOException, InterruptedException {
+        Mockito.when(httpClient.fetch(anyString(), anyMap(), anyLong())).thenReturn(null);
+        CrawlerContext context = context("http://test.test", 0, 1);
+        scheduler.register(context);
+        scheduler.dispatch();
+        awaitNoLinksInWork(context);
+        assertEquals(1, scheduler.getMetrics().get("hosts"));
+
+        context.setStopped(true);
+        scheduler.dispatch();
+
+        assertAll(() -> assertEquals(0, scheduler.getMetrics().get("sites")),
+                () -> assertEquals(0, scheduler.getMetrics().get("hosts")));
+    }
+
+    private void withMaxFetchesPerHost(int maxFetchesPerHost) {
+        scheduler.shutdown();
+        settings.setMaxFetchesPerHost(maxFetchesPerHost);
+        scheduler = new PolitenessScheduler(commonContext, settings, new PageAnalyzer(settings));
+    }
+
+    private CrawlerContext context(String url, int delay, int maxThreads) {
+        Site site = new Site();
+        site.setUrl(url);
+        CrawlerContext context = new CrawlerContext(site, 100, Set.of(), null);
+        context.setMinDelay(delay);
+        context.setMaxDelay(delay);
+        context.setMaxThreads(maxThreads);
+        for (int i = 0; i < 3; i++) {
+            context.addToFrontier(url + "/page" + i);
+        }
+        return context;
+    }
+
+    private void awaitNoLinksInWork(CrawlerContext context) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!context.getLinksInWork().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(context.getLinksInWork().isEmpty(), "загрузка должна завершиться");
+    }
+
+    private void awaitDispatched(CrawlerContext context, int frontierSize) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (context.getFrontier().size() > frontierSize && System.currentTimeMillis() < deadline) {
+            scheduler.dispatch();
+            Thread.sleep(5);
+        }
+        assertEquals(frontierSize, context.getFrontier().size(), "следующая страница должна уйти в работу");
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.HttpClientSettings;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.IndexingSettings;
+import com.github.dmitriims.posikengine.model.Site;
+import com.github.dmitriims.posikengine.service.CommonContext;
+import crawlercommons.robots.SimpleRobotRules;
+import crawlercommons.sitemaps.SiteMapURL;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SitemapSeederTest {
+
+    MockWebServer server;
+    CrawlerHttpClient client;
+    SitemapSeeder seeder;
+    PolitenessScheduler scheduler;
+    CrawlerContext context;
+    String siteUrl;
+
+    @Mock
+    CommonContext commonContext;
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new CrawlerHttpClient("TestBot", new HttpClientSettings());
+        IndexingSettings settings = new IndexingSettings();
+        settings.setAnalyzerThreads(0);
+        scheduler = new PolitenessScheduler(commonContext, settings, new PageAnalyzer(settings));
+        seeder = new SitemapSeeder(client, commonContext, settings, scheduler);
+        siteUrl = server.url("/").toString().replaceAll("/$", "");
+        Site site = new Site();
+        site.setUrl(siteUrl);
+        context = new CrawlerContext(site, 100, new HashSet<>(), new SimpleRobotRules(SimpleRobotRules.RobotRulesMode.ALLOW_ALL));
+        Mockito.lenient().when(commonContext.isIndexing()).thenReturn(true);
+        Mockito.lenient().when(commonContext.getFORBIDDEN_COMPONENTS()).thenReturn(List.of("#"));
+    }
+
+    @AfterEach
+    public void shutdown() throws IOException {
+        seeder.shutdown();
+        scheduler.shutdown();
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    @DisplayName("walk - индекс карт и карта в gzip, в очередь попадают только ссылки сайта")
+    public void testSitemapIndexAndGzip() throws IOException {
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/xml").setBody(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                "<sitemap><loc>" + siteUrl + "/pages.xml.gz</loc></sitemap>" +
+                "</sitemapindex>"));
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    "<url><loc>" + siteUrl + "/a</loc><lastmod>2022-01-01</lastmod><priority>0.8</priority></url>" +
+                    "<url><loc>" + siteUrl + "/b</loc></url>" +
+                    "<url><loc>http://other.test/c</loc></url>" +
+                    "</urlset>").getBytes(StandardCharsets.UTF_8));
+        }
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/gzip").setBody(new Buffer().write(gzipped.toByteArray())));
+
+        int added = seeder.walk(List.of(siteUrl + "/sitemap.xml"), context, url -> seeder.addToFrontier(context, url));
+
+        assertAll(() -> assertEquals(2, added),
+                () -> assertEquals(2, context.getFrontier().size()),
+                () -> assertEquals(new FrontierEntry(siteUrl + "/a", 1, 0.8), context.getFrontier().peek()),
+                () -> assertEquals(Instant.parse("2022-01-01T00:00:00Z").toEpochMilli(), context.getSitemapLastmods().get("/a")),
+                () -> assertFalse(context.getSitemapLastmods().containsKey("/b")));
+    }
+
+    @Test
+    @DisplayName("walk - вложенные карты запрашиваются с той же паузой между обращениями к хосту, что и страницы")
+    public void testSitemapsRespectHostDelay() {
+        context.setMinDelay(300);
+        context.setMaxDelay(300);
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/xml").setBody(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                "<sitemap><loc>" + siteUrl + "/pages.xml</loc></sitemap>" +
+                "</sitemapindex>"));
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/xml").setBody(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                "<url><loc>" + siteUrl + "/a</loc></url>" +
+                "</urlset>"));
+
+        long start = System.currentTimeMillis();
+        int added = seeder.walk(List.of(siteUrl + "/sitemap.xml"), context, url -> seeder.addToFrontier(context, url));
+
+        assertAll(() -> assertEquals(1, added),
+                () -> assertEquals(2, server.getRequestCount()),
+                () -> assertTrue(System.currentTimeMillis() - start >= 300, "вторая карта запрошена без паузы"));
+    }
+
+    @Test
+    @DisplayName("addToFrontier - дат из карты сайта хранится не больше, чем ссылок помещается в очередь")
+    public void testLastmodsAreBounded() {
+        context.setMaxFrontierSize(1);
+
+        boolean first = seeder.addToFrontier(context, new SiteMapURL(siteUrl + "/a", "2022-01-01", null, null, true));
+        boolean second = seeder.addToFrontier(context, new SiteMapURL(siteUrl + "/b", "2022-01-01", null, null, true));
+
+        assertAll(() -> assertTrue(first),
+                () -> assertFalse(second),
+                () -> assertEquals(List.of("/a"), List.copyOf(context.getSitemapLastmods().keySet())));
+    }
+
+    @Test
+    @DisplayName("walk - карты нет - очередь не меняется")
+    public void testMissingSitemap() {
+        server.enqueue(new MockResponse().setResponseCode(404));
+
+        int added = seeder.walk(List.of(siteUrl + "/sitemap.xml"), context, url -> seeder.addToFrontier(context, url));
+
+        assertAll(() -> assertEquals(0, added),
+                () -> assertTrue(context.getFrontier().isEmpty()));
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.dmitriims.posikengine.service.crawler;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UrlFingerprintSetTest {
+
+    @Test
+    @DisplayName("add - повторный адрес не добавляется")
+    public void testAddDuplicate() {
+        UrlFingerprintSet visited = new UrlFingerprintSet();
+
+        assertAll(() -> assertTrue(visited.add("http://test.test/1")),
+                () -> assertFalse(visited.add("http://test.test/1")),
+                () -> assertEquals(1, visited.size()));
+    }
+
+    @Test
+    @DisplayName("contains - слеш на конце не важен")
+    public void testTrailingSlash() {
+        UrlFingerprintSet visited = new UrlFingerprintSet();
+        visited.add("http://test.test/1/");
+
+        assertAll(() -> assertTrue(visited.contains("http://test.test/1")),
+                () -> assertTrue(visited.contains("http://test.test/1/")),
+                () -> assertFalse(visited.add("http://test.test/1")),
+                () -> assertFalse(visited.contains("http://test.test/")));
+    }
+
+    @Test
+    @DisplayName("contains - много адресов, с фильтром Блума и без")
+    public void testManyUrls() {
+        UrlFingerprintSet plain = new UrlFingerprintSet();
+        UrlFingerprintSet withBloom = new UrlFingerprintSet(4, 1000);
+        IntStream.range(0, 10_000).forEach(i -> {
+            plain.add("http://test.test/page/" + i);
+            withBloom.add("http://test.test/page/" + i);
+        });
+
+        assertAll(() -> assertEquals(10_000, plain.size()),
+                () -> assertEquals(10_000, withBloom.size()),
+                () -> assertTrue(IntStream.range(0, 10_000).allMatch(i -> plain.contains("http://test.test/page/" + i))),
+                () -> assertTrue(IntStream.range(0, 10_000).allMatch(i -> withBloom.contains("http://test.test/page/" + i))),
+                () -> assertTrue(IntStream.range(10_000, 20_000).noneMatch(i -> plain.contains("http://test.test/page/" + i))),
+                () -> assertTrue(IntStream.range(10_000, 20_000).noneMatch(i -> withBloom.contains("http://test.test/page/" + i))),
+                () -> assertTrue(withBloom.memoryFootprint() > plain.memoryFootprint()));
+    }
+
+    @Test
+    @DisplayName("add - одновременное добавление из нескольких потоков")
+    public void testConcurrentAdd() throws InterruptedException {
+        UrlFingerprintSet visited = new UrlFingerprintSet();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> IntStream.range(0, 5_000).forEach(i -> visited.add("http://test.test/" + i)));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(5_000, visited.size());
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.dmitriims.posikengine.service.indexing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LemmaDictionaryTest {
+
+    LemmaDictionary dictionary;
+
+    @BeforeEach
+    public void init() {
+        dictionary = new LemmaDictionary();
+    }
+
+    @Test
+    @DisplayName("getLemmaIds - словарь сайта загружается из базы один раз и дополняется новыми леммами")
+    public void testLemmaIdsLoadedOnce() {
+        AtomicInteger loads = new AtomicInteger();
+        dictionary.getLemmaIds(1L, 0, () -> {
+            loads.incrementAndGet();
+            return Map.of("тест", 10L);
+        });
+        dictionary.addLemmaId(1L, 0, "test", 11L);
+        Map<String, Long> ids = dictionary.getLemmaIds(1L, 0, () -> {
+            loads.incrementAndGet();
+            return Map.of();
+        });
+
+        assertAll(() -> assertEquals(1, loads.get(), "словарь должен загружаться один раз"),
+                () -> assertEquals(Map.of("тест", 10L, "test", 11L), ids, "в словаре должны быть загруженные и новые леммы"));
+    }
+
+    @Test
+    @DisplayName("getLemmaIds - при записи в новое поколение словарь загружается заново")
+    public void testLemmaIdsReloadedForNewGeneration() {
+        dictionary.getLemmaIds(1L, 0, () -> Map.of("тест", 10L));
+        Map<String, Long> ids = dictionary.getLemmaIds(1L, 1, () -> Map.of("test", 20L));
+        dictionary.addLemmaId(1L, 0, "старое", 12L);
+
+        assertEquals(Map.of("test", 20L), ids, "в словаре должны быть только леммы нового поколения");
+    }
+
+    @Test
+    @DisplayName("drainFrequencyDeltas - изменения частот не теряются при одновременной записи")
+    public void testDrainKeepsConcurrentDeltas() throws InterruptedException {
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            writers.execute(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    dictionary.addFrequency(1L, (long) (j % 10), 1);
+                }
+            });
+        }
+        long drained = 0;
+        for (int i = 0; i < 20; i++) {
+            drained += dictionary.drainFrequencyDeltas(1L).values().stream().mapToLong(Long::longValue).sum();
+        }
+        writers.shutdown();
+        assertTrue(writers.awaitTermination(10, TimeUnit.SECONDS));
+        long total = drained + dictionary.drainFrequencyDeltas(1L).values().stream().mapToLong(Long::longValue).sum();
+
+        assertAll(() -> assertEquals(40000, total, "сумма собранных изменений должна совпадать с записанной"),
+                () -> assertTrue(dictionary.drainFrequencyDeltas(1L).isEmpty(), "после сбора изменений не должно остаться"));
+    }
+
+    @Test
+    @DisplayName("addFrequencyDeltas - несохранённые изменения возвращаются и складываются с новыми")
+    public void testReturnDeltas() {
+        dictionary.addFrequency(1L, 5L, 3);
+        Map<Long, Long> drained = dictionary.drainFrequencyDeltas(1L);
+        dictionary.addFrequency(1L, 5L, -1);
+        dictionary.addFrequencyDeltas(1L, drained);
+
+        assertEquals(Map.of(5L, 2L), dictionary.drainFrequencyDeltas(1L));
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.dmitriims.posikengine.service.search;
+
+import com.github.dmitriims.posikengine.dto.userprovaideddata.SearchSettings;
+import com.github.dmitriims.posikengine.model.Lemma;
+import com.github.dmitriims.posikengine.model.Page;
+import com.github.dmitriims.posikengine.model.Site;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InvertedIndexTest {
+
+    InvertedIndex index;
+    Site site;
+
+    @BeforeEach
+    public void init() {
+        index = new InvertedIndex(new SearchSettings());
+        site = new Site();
+        site.setId(1L);
+        site.setGeneration(1);
+        InvertedIndex.Loader loader = index.newLoader(true);
+        loader.addSite(1L, 1);
+        loader.install();
+    }
+
+    @Test
+    @DisplayName("findPages - находятся только страницы со всеми леммами, по убыванию релевантности, с учётом смещения")
+    public void testIntersectionTopAndOffset() {
+        index.putPage(page(1), lemmas(Map.of("мама", 1.0, "рама", 1.0)));
+        index.putPage(page(2), lemmas(Map.of("мама", 3.0)));
+        index.putPage(page(3), lemmas(Map.of("мама", 2.0, "рама", 2.0)));
+        index.putPage(page(4), lemmas(Map.of("мама", 1.0, "рама", 3.0)));
+
+        List<ScoredPage> all = index.findPages(List.of(1L), List.of("мама", "рама"), 10, 0);
+        List<ScoredPage> second = index.findPages(List.of(1L), List.of("мама", "рама"), 1, 1);
+
+        assertAll(() -> assertTrue(index.isReady()),
+                () -> assertEquals(List.of(3L, 4L, 1L), ids(all), "при равной релевантности раньше идёт меньший id"),
+                () -> assertEquals(4.0, all.get(0).getRelevance(), 1e-6),
+                () -> assertEquals(List.of(4L), ids(second)),
+                () -> assertTrue(index.findPages(List.of(1L), List.of("мама", "мыть"), 10, 0).isEmpty()));
+    }
+
+    @Test
+    @DisplayName("putPage - переиндексированная страница находится только по новым леммам, удалённая не находится")
+    public void testReindexedAndRemovedPages() {
+        index.putPage(page(1), lemmas(Map.of("мама", 1.0)));
+        index.putPage(page(2), lemmas(Map.of("мама", 1.0)));
+        index.putPage(page(1), lemmas(Map.of("рама", 2.0)));
+        index.removePages(1L, List.of(2L));
+
+        assertAll(() -> assertTrue(index.findPages(List.of(1L), List.of("мама"), 10, 0).isEmpty()),
+                () -> assertEquals(List.of(1L), ids(index.findPages(List.of(1L), List.of("рама"), 10, 0))),
+                () -> assertEquals(1L, index.getMetrics().get("pages")));
+    }
+
+    @Test
+    @DisplayName("putPage - после сжатия списков результаты поиска не меняются")
+    public void testCompactionKeepsResults() {
+        for (long id = 1; id <= 1000; id++) {
+            index.putPage(page(id), lemmas(Map.of("мама", (double) id, "рама", 1.0)));
+        }
+        for (long id = 2; id <= 1000; id += 2) {
+            index.putPage(page(id), lemmas(Map.of("рама", 1.0)));
+        }
+
+        List<ScoredPage> found = index.findPages(List.of(1L), List.of("мама", "рама"), 1000, 0);
+
+        assertAll(() -> assertEquals(500, found.size(), "чётные страницы больше не содержат лемму мама"),
+                () -> assertEquals(999L, found.get(0).getPageId()),
+                () -> assertTrue(found.stream().allMatch(p -> p.getPageId() % 2 == 1)));
+    }
+
+    @Test
+    @DisplayName("Loader - записи, сделанные во время загрузки, не перекрываются загруженными строками")
+    public void testLoaderKeepsConcurrentUpdates() {
+        InvertedIndex fresh = new InvertedIndex(new SearchSettings());
+        InvertedIndex.Loader loader = fresh.newLoader(true);
+        loader.addSite(1L, 1);
+        fresh.putPage(page(2), lemmas(Map.of("рама", 1.0)));
+        loader.addPage(1L, 1L);
+        loader.addPosting(1L, 1L, "мама", 1.0);
+        loader.addPage(1L, 2L);
+        loader.addPosting(1L, 2L, "мама", 5.0);
+        assertFalse(fresh.isReady(), "до установки загруженного поиск идёт через базу");
+        loader.install();
+
+        assertAll(() -> assertTrue(fresh.isReady()),
+                () -> assertEquals(List.of(1L), ids(fresh.findPages(List.of(1L), List.of("мама"), 10, 0))),
+                () -> assertEquals(List.of(2L), ids(fresh.findPages(List.of(1L), List.of("рама"), 10, 0))));
+    }
+
+    @Test
+    @DisplayName("putPage - страницы неактивного поколения в индекс не попадают")
+    public void testOtherGenerationIgnored() {
+        Page page = page(1);
+        page.setGeneration(2);
+        index.putPage(page, lemmas(Map.of("мама", 1.0)));
+
+        assertTrue(index.findPages(List.of(1L), List.of("мама"), 10, 0).isEmpty());
+    }
+
+    @Test
+    @DisplayName("filterPopularLemmasOut - отбрасываются слишком частые и отсутствующие леммы, остальные от редких к частым")
+    public void testFilterPopularLemmasOut() {
+        for (long id = 1; id <= 10; id++) {
+            index.putPage(page(id), lemmas(id <= 3 ? Map.of("мама", 1.0, "рама", 1.0, "мыть", 1.0) : Map.of("мама", 1.0, "мыть", 1.0)));
+        }
+
+        List<String> filtered = index.filterPopularLemmasOut(List.of(1L), List.of("мама", "мыть", "рама", "кот"), 0.97);
+
+        assertEquals(List.of("рама"), filtered);
+        assertEquals(List.of("рама", "мыть"), index.filterPopularLemmasOut(List.of(1L), List.of("мыть", "рама"), 1.01));
+    }
+
+    @Test
+    @DisplayName("filterPopularLemmasOut - частоты учитывают переиндексацию и удаление страниц, доля считается от страниц выбранного сайта")
+    public void testDocumentFrequencyFollowsChanges() {
+        Site other = new Site();
+        other.setId(2L);
+        other.setGeneration(1);
+        InvertedIndex.Loader loader = index.newLoader(false);
+        loader.addSite(2L, 1);
+        loader.install();
+        for (long id = 1; id <= 4; id++) {
+            index.putPage(page(id), lemmas(Map.of("мама", 1.0)));
+        }
+        for (long id = 5; id <= 20; id++) {
+            Page page = page(id);
+            page.setSite(other);
+            index.putPage(page, lemmas(Map.of("рама", 1.0)));
+        }
+        assertTrue(index.filterPopularLemmasOut(List.of(1L), List.of("мама"), 0.97).isEmpty(),
+                "мама есть на всех страницах первого сайта, страницы второго сайта не в счёт");
+
+        index.putPage(page(1), lemmas(Map.of("рама", 1.0)));
+        index.removePages(1L, List.of(2L));
+
+        assertAll(() -> assertEquals(List.of("мама"), index.filterPopularLemmasOut(List.of(1L), List.of("мама"), 0.97)),
+                () -> assertEquals(2L, index.getMetrics().get("frequencyRecounts")),
+                () -> assertEquals(List.of("рама", "мама"), index.filterPopularLemmasOut(List.of(1L), List.of("мама", "рама"), 1.01)));
+    }
+
+    @Test
+    @DisplayName("findPages - ранги не теряют точность, поэтому близкая релевантность различается так же, как в базе")
+    public void testRanksKeepDoublePrecision() {
+        index.putPage(page(1), lemmas(Map.of("мама", 1.0)));
+        index.putPage(page(2), lemmas(Map.of("мама", 1.00000001)));
+
+        List<ScoredPage> found = index.findPages(List.of(1L), List.of("мама"), 10, 0);
+
+        assertAll(() -> assertEquals(List.of(2L, 1L), ids(found)),
+                () -> assertEquals(1.00000001, found.get(0).getRelevance()));
+    }
+
+    @Test
+    @DisplayName("putPage - страницы с номерами больше int находятся, удаляются и учитываются в частотах")
+    public void testPageIdsBeyondIntRange() {
+        long large = Integer.MAX_VALUE + 10L;
+        index.putPage(page(1), lemmas(Map.of("мама", 1.0)));
+        index.putPage(page(large), lemmas(Map.of("мама", 2.0, "рама", 1.0)));
+
+        assertAll(() -> assertEquals(List.of(large, 1L), ids(index.findPages(List.of(1L), List.of("мама"), 10, 0))),
+                () -> assertEquals(2L, index.getMetrics().get("pages")),
+                () -> assertEquals(List.of("рама"), index.filterPopularLemmasOut(List.of(1L), List.of("мама", "рама"), 0.97)));
+
+        index.removePages(1L, List.of(large));
+
+        assertAll(() -> assertEquals(List.of(1L), ids(index.findPages(List.of(1L), List.of("мама"), 10, 0))),
+                () -> assertEquals(1L, index.getMetrics().get("pages")));
+    }
+
+    @Test
+    @DisplayName("PostingList.Builder - страницы не по возрастанию, исключение")
+    public void testBuilderRequiresAscendingIds() {
+        PostingList.Builder builder = new PostingList.Builder();
+        builder.add(5, 1.0);
+
+        assertThrows(IllegalArgumentException.class, () -> builder.add(5, 1.0));
+    }
+
+    private Page page(long id) {
+        Page page = new Page();
+        page.setId(id);
+        page.setSite(site);
+        page.setGeneration(1);
+        return page;
+    }
+
+    private List<Lemma> lemmas(Map<String, Double> ranks) {
+        List<Lemma> lemmas = new ArrayList<>();
+        ranks.forEach((text, rank) -> {
+            Lemma lemma = new Lemma(null, site, text, 1);
+            lemma.setRank(rank);
+            lemmas.add(lemma);
+        });
+        return lemmas;
+    }
+
+    private List<Long> ids(List<ScoredPage> pages) {
+        return pages.stream().map(ScoredPage::getPageId).toList();
+    }
+}
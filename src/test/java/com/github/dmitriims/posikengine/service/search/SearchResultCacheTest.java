@@ -0,0 +1,68 @@
+package com.github.dmitriims.posikengine.service.search;
+
+import com.github.dmitriims.posikengine.dto.FoundPage;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.SearchSettings;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchResultCacheTest {
+
+    SearchResultCache cache = new SearchResultCache(new SearchSettings());
+
+    @Test
+    @DisplayName("get - ключ не зависит от порядка сайтов, но зависит от слов запроса и окна выдачи")
+    public void testKeyIsNormalized() {
+        SearchResultCache.Key key = cache.key(List.of("мама", "рама"), List.of(2L, 1L), 0, 10);
+        SearchResultCache.Result result = new SearchResultCache.Result(List.of("мама", "рама"), List.of(new FoundPage()));
+        cache.put(key, cache.versions(key), result);
+
+        assertAll(() -> assertSame(result, cache.get(cache.key(List.of("мама", "рама"), List.of(1L, 2L), 0, 10))),
+                () -> assertNull(cache.get(cache.key(List.of("мама", "рамы"), List.of(1L, 2L), 0, 10))),
+                () -> assertNull(cache.get(cache.key(List.of("мама", "рама"), List.of(1L, 2L), 10, 10))),
+                () -> assertEquals(1.0 / 3, cache.getMetrics().get("resultCacheHitRatio")));
+    }
+
+    @Test
+    @DisplayName("get - результат устаревает при изменении индекса любого из его сайтов, но не других")
+    public void testSiteVersionInvalidatesResult() {
+        SearchResultCache.Key both = cache.key(List.of("мама"), List.of(1L, 2L), 0, 10);
+        SearchResultCache.Key first = cache.key(List.of("мама"), List.of(1L), 0, 10);
+        SearchResultCache.Result result = new SearchResultCache.Result(List.of(), List.of());
+        cache.put(both, cache.versions(both), result);
+        cache.put(first, cache.versions(first), result);
+
+        cache.invalidateSite(2L);
+
+        assertAll(() -> assertNull(cache.get(both)),
+                () -> assertSame(result, cache.get(first)),
+                () -> assertEquals(1L, cache.getMetrics().get("resultCacheStaleResults")));
+    }
+
+    @Test
+    @DisplayName("put - результат, посчитанный во время изменения индекса, сразу устаревший")
+    public void testResultComputedDuringWriteIsStale() {
+        SearchResultCache.Key key = cache.key(List.of("мама"), List.of(1L), 0, 10);
+        long[] versions = cache.versions(key);
+        cache.invalidateSite(1L);
+        cache.put(key, versions, new SearchResultCache.Result(List.of(), List.of()));
+
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    @DisplayName("resultCacheSize 0 - кеш выключен")
+    public void testDisabledCache() {
+        SearchSettings settings = new SearchSettings();
+        settings.setResultCacheSize(0);
+        SearchResultCache disabled = new SearchResultCache(settings);
+        SearchResultCache.Key key = disabled.key(List.of("мама"), List.of(1L), 0, 10);
+        disabled.put(key, disabled.versions(key), new SearchResultCache.Result(List.of(), List.of()));
+
+        assertAll(() -> assertNull(disabled.get(key)),
+                () -> assertEquals(1, disabled.getMetrics().size()));
+    }
+}
@@ -2,6 +2,8 @@ package com.github.dmitriims.posikengine.service.search;
 
 import com.github.dmitriims.posikengine.dto.PageDTO;
 import com.github.dmitriims.posikengine.dto.SearchRequest;
+import com.github.dmitriims.posikengine.dto.SearchResponse;
+import com.github.dmitriims.posikengine.dto.userprovaideddata.SearchSettings;
 import com.github.dmitriims.posikengine.exceptions.SearchException;
 import com.github.dmitriims.posikengine.model.Site;
 import com.github.dmitriims.posikengine.service.CommonContext;
@@ -41,6 +43,11 @@ public class SearchServiceTest {
     @Mock
     DatabaseService databaseService;
 
+    @Mock
+    InvertedIndex invertedIndex;
+
+    SearchResultCache resultCache = new SearchResultCache(new SearchSettings());
+
     LuceneMorphology russianLuceneMorphology = new RussianLuceneMorphology();
     LuceneMorphology englishLuceneMorphology = new EnglishLuceneMorphology();
     String notAWord = "(?:\\.*\\s+\\-\\s+\\.*)|[^\\-а-яА-Яa-zA-Z\\d\\ё\\Ё]+";
@@ -65,7 +72,7 @@ public class SearchServiceTest {
 
     @BeforeEach
     public void init() {
-        searchService = new SearchService(commonContext);
+        searchService = new SearchService(commonContext, invertedIndex, resultCache);
     }
 
     @Test
@@ -182,6 +189,87 @@ public class SearchServiceTest {
                 () -> assertEquals(lemmasExpected, lemmas, "должна быть удалена первая лемма"));
     }
 
+    @Test
+    @DisplayName("findRelevantPages - индекс в памяти загружен, страницы ранжируются в нём, из базы берётся только содержимое")
+    public void findRelevantPagesInMemoryIndex() {
+
+        List<String> lemmas = new ArrayList<>() {{
+            add("мама");
+            add("рама");
+        }};
+
+        Site site = new Site();
+        site.setId(1L);
+        List<Site> sites = Collections.singletonList(site);
+
+        List<ScoredPage> ranked = List.of(new ScoredPage(1L, 7L, 4.2));
+        PageDTO pageDTO = new TestPageDTO("test", "test", "test", "test", 4.2);
+        List<PageDTO> found = Collections.singletonList(pageDTO);
+
+        Mockito.when(invertedIndex.isReady()).thenReturn(true);
+        Mockito.when(invertedIndex.findPages(List.of(1L), lemmas, 10, 0)).thenReturn(ranked);
+        Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+        Mockito.when(databaseService.getRankedPageDTOs(ranked)).thenReturn(found);
+
+        List<PageDTO> actual = searchService.findRelevantPages(lemmas, sites, 10, 0);
+
+        assertEquals(found, actual, "должна найтись одна страница");
+        Mockito.verify(databaseService, Mockito.never()).getSortedRelevantPageDTOs(anyList(), anyList(), anyInt(), anyInt());
+    }
+
+    @Test
+    @DisplayName("search - повторный запрос берётся из кеша, пока индекс сайта не изменился")
+    public void testSearchRepeatedQueryFromCache() throws IOException, SearchException {
+        SearchService searchSpy = Mockito.spy(searchService);
+        Site site = new Site();
+        site.setId(1L);
+        doReturn(List.of(site)).when(searchSpy).getSitesToSearch(anyString());
+        Mockito.when(commonContext.getMorphologyService()).thenReturn(morphologyService);
+        Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+        Mockito.when(databaseService.filterPopularLemmasOut(anyList(), anyList(), anyDouble())).thenReturn(new ArrayList<>() {{
+            add("мама");
+        }});
+        PageDTO pageDTO = new TestPageDTO("https://site.ru", "site", "/", "<title>Мама</title><p>Мама</p>", 1.0);
+        doReturn(new ArrayList<>(List.of(pageDTO))).when(searchSpy).findRelevantPages(anyList(), anyList(), anyInt(), anyInt());
+
+        SearchResponse first = searchSpy.search(new SearchRequest("мама", "site", 0, 10));
+        SearchResponse second = searchSpy.search(new SearchRequest("мама", "site", 0, 10));
+        resultCache.invalidateSite(1L);
+        searchSpy.search(new SearchRequest("мама", "site", 0, 10));
+
+        assertAll(() -> assertEquals(1, first.getCount()),
+                () -> assertEquals(first.getData(), second.getData()),
+                () -> assertEquals(1L, resultCache.getMetrics().get("resultCacheHits")),
+                () -> assertEquals(1L, resultCache.getMetrics().get("resultCacheStaleResults")));
+        Mockito.verify(searchSpy, Mockito.times(2)).findRelevantPages(anyList(), anyList(), anyInt(), anyInt());
+    }
+
+    @Test
+    @DisplayName("search - разные формы одного слова не берут из кеша чужое сообщение, регистр слов на ключ не влияет")
+    public void testSearchWordFormsDoNotShareCachedMessage() throws IOException, SearchException {
+        SearchService searchSpy = Mockito.spy(searchService);
+        Site site = new Site();
+        site.setId(1L);
+        doReturn(List.of(site)).when(searchSpy).getSitesToSearch(anyString());
+        Mockito.when(commonContext.getMorphologyService()).thenReturn(morphologyService);
+        Mockito.when(commonContext.getDatabaseService()).thenReturn(databaseService);
+        Mockito.when(databaseService.filterPopularLemmasOut(anyList(), anyList(), anyDouble())).thenAnswer(invocation -> new ArrayList<>() {{
+            add("рама");
+        }});
+        PageDTO pageDTO = new TestPageDTO("https://site.ru", "site", "/", "<title>Рама</title><p>Рама и раму</p>", 1.0);
+        doReturn(new ArrayList<>(List.of(pageDTO))).when(searchSpy).findRelevantPages(anyList(), anyList(), anyInt(), anyInt());
+
+        SearchResponse rama = searchSpy.search(new SearchRequest("рама кот", "site", 0, 10));
+        SearchResponse ramu = searchSpy.search(new SearchRequest("раму кот", "site", 0, 10));
+        SearchResponse cachedRamu = searchSpy.search(new SearchRequest("Раму кот", "site", 0, 10));
+
+        assertAll(() -> assertTrue(rama.getMessage().startsWith("По запросу 'рама кот' ничего не найдено. Скорректированный запрос: 'рама'.")),
+                () -> assertTrue(ramu.getMessage().startsWith("По запросу 'раму кот' ничего не найдено. Скорректированный запрос: 'раму'.")),
+                () -> assertTrue(cachedRamu.getMessage().startsWith("По запросу 'Раму кот' ничего не найдено. Скорректированный запрос: 'Раму'.")),
+                () -> assertEquals(1L, resultCache.getMetrics().get("resultCacheHits")));
+        Mockito.verify(searchSpy, Mockito.times(2)).findRelevantPages(anyList(), anyList(), anyInt(), anyInt());
+    }
+
     @Nested
     @DisplayName("Проверка исключений")
     class searchExceptionTest {